@@ -5,16 +5,23 @@ import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.ui.Messages;
 import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
 import com.intellij.openapi.project.Project;
+import com.vittoriomattei.contextfetcher.util.DirectoryFileCollector;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class AddFileAction extends AnAction {
+
+    private static final String MAX_FILES_REGISTRY_KEY = "contextfetcher.directory.max.files";
+    private static final int DEFAULT_MAX_FILES = 1000;
+    // Files added to the context at once while a directory is walked
+    private static final int BATCH_SIZE = 100;
+
     @Override
     public void actionPerformed(AnActionEvent e) {
         Project project = e.getProject();
@@ -30,9 +37,7 @@ public class AddFileAction extends AnAction {
 
         FileAggregatorService service = project.getService(FileAggregatorService.class);
         if ( file.isDirectory()) {
-            List<VirtualFile> collected =  new ArrayList<>();
-            collectFilesRecursively(file, collected);
-            service.addFiles(collected);
+            addDirectoryInBackground(project, file, service);
         } else {
             service.addFile(file);
         }
@@ -52,13 +57,30 @@ public class AddFileAction extends AnAction {
         return ActionUpdateThread.BGT;
     }
 
-    private void collectFilesRecursively(VirtualFile dir, List<VirtualFile> collected) {
-        for (VirtualFile child : dir.getChildren()) {
-            if (child.isDirectory()) {
-                collectFilesRecursively(child, collected);
-            } else {
-                collected.add(child);
+    private void addDirectoryInBackground(Project project, VirtualFile directory, FileAggregatorService service) {
+        int maxFiles = Registry.intValue(MAX_FILES_REGISTRY_KEY, DEFAULT_MAX_FILES);
+
+        new Task.Backgroundable(project, "Adding " + directory.getName() + " to context", true) {
+            private DirectoryFileCollector.Result result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                DirectoryFileCollector collector = new DirectoryFileCollector(project, maxFiles, BATCH_SIZE);
+                // Batches are added from this thread as they are found, the list fills up while the walk goes on.
+                // The service is thread-safe and its listeners receive the changes on the EDT
+                result = collector.collect(directory, indicator, service::addFiles);
             }
-        }
+
+            @Override
+            public void onSuccess() {
+                if (result != null && result.limitReached()) {
+                    Messages.showWarningDialog(project,
+                            "Only the first " + result.fileCount() + " files of " + directory.getName() + " were added.\n"
+                                    + "The limit can be changed with the registry key " + MAX_FILES_REGISTRY_KEY + ".",
+                            "ContextFetcher");
+                }
+            }
+        }.queue();
     }
 }
@@ -5,12 +5,12 @@ import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.fileEditor.impl.EditorHistoryManager;
 import com.intellij.openapi.ui.popup.JBPopup;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
 import com.vittoriomattei.contextfetcher.ui.panel.RecentFilesPopupPanel;
 import org.jetbrains.annotations.NotNull;
 
-import javax.swing.*;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
@@ -22,14 +22,16 @@ public class AddRecentFilesAction extends AnAction {
         var project = e.getProject();
         List<VirtualFile> recentFiles = Arrays.asList(EditorHistoryManager.getInstance(Objects.requireNonNull(project)).getFiles());
         FileAggregatorService fileService = project.getService(FileAggregatorService.class);
-        JPanel popupPanel = new RecentFilesPopupPanel(recentFiles, selectedFile -> this.fileSelectedCallback(selectedFile, fileService));
+        RecentFilesPopupPanel popupPanel = new RecentFilesPopupPanel(project, recentFiles, selectedFiles -> this.filesSelectedCallback(selectedFiles, fileService));
 
         JBPopup popup = JBPopupFactory.getInstance()
-                .createComponentPopupBuilder(popupPanel, null)
-                .setTitle("Add Recent Files to Context")
+                .createComponentPopupBuilder(popupPanel, popupPanel.getPreferredFocusedComponent())
+                .setTitle("Add Files to Context")
+                .setRequestFocus(true)
                 .setResizable(true)
                 .setMovable(true)
                 .createPopup();
+        Disposer.register(popup, popupPanel);
 
         if (e.getInputEvent() != null){
             popup.showUnderneathOf(e.getInputEvent().getComponent());
@@ -38,8 +40,9 @@ public class AddRecentFilesAction extends AnAction {
         }
     }
 
-    private void fileSelectedCallback(VirtualFile file, FileAggregatorService fileService) {
-        fileService.addFile(file);
+    private void filesSelectedCallback(List<VirtualFile> files, FileAggregatorService fileService) {
+        // One batch, so the selection is added with a single change event
+        fileService.batch(mutations -> files.forEach(mutations::addFile));
     }
 
 
@@ -21,7 +21,7 @@ public class ClearAllAction extends AnAction {
         super.update(e);
         var project = e.getProject();
         var service = Objects.requireNonNull(project).getService(FileAggregatorService.class);
-        e.getPresentation().setEnabled(service.getFileCount() + service.getSnippetCount() > 0);
+        e.getPresentation().setEnabled(!service.getStatistics().isEmpty());
     }
 
     @Override
@@ -0,0 +1,66 @@
+package com.vittoriomattei.contextfetcher.actions;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.ui.SimpleListCellRenderer;
+import com.vittoriomattei.contextfetcher.services.ContextGeneratorService;
+import com.vittoriomattei.contextfetcher.util.ContextChunker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * Copies one part of the generated context, for chat inputs that limit how much text can be pasted.
+ * Parts end at line breaks and are at most as long as the {@code contextfetcher.clipboard.part.max.chars} registry value.
+ */
+public class CopyContextPartAction extends AnAction {
+
+    private static final String MAX_CHARS_REGISTRY_KEY = "contextfetcher.clipboard.part.max.chars";
+    private static final int DEFAULT_MAX_CHARS = 50_000;
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        var project = e.getProject();
+        var service = Objects.requireNonNull(project).getService(ContextGeneratorService.class);
+
+        String context = service.getCurrentContext();
+        List<ContextChunker.Part> parts = ContextChunker.split(context,
+                Math.max(1, Registry.intValue(MAX_CHARS_REGISTRY_KEY, DEFAULT_MAX_CHARS)));
+        if (parts.isEmpty()) {
+            return;
+        }
+        if (parts.size() == 1) {
+            CopyGeneratedToClipboardAction.copyToClipboard(service, context, "Copied context to clipboard");
+            return;
+        }
+
+        JBPopupFactory.getInstance()
+                .createPopupChooserBuilder(IntStream.range(0, parts.size()).boxed().toList())
+                .setTitle("Copy Part of Context")
+                .setRenderer(SimpleListCellRenderer.create("", index -> "Part " + (index + 1) + " of " + parts.size()
+                        + " (" + (parts.get(index).end() - parts.get(index).start()) + " characters)"))
+                .setItemChosenCallback(index -> CopyGeneratedToClipboardAction.copyToClipboard(service,
+                        parts.get(index).of(context), "Copied part " + (index + 1) + " of " + parts.size() + " to clipboard"))
+                .createPopup()
+                .showInBestPositionFor(e.getDataContext());
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        super.update(e);
+        var project = e.getProject();
+        var service = Objects.requireNonNull(project).getService(ContextGeneratorService.class);
+
+        e.getPresentation().setEnabled(!service.getCurrentContext().isEmpty());
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return super.getActionUpdateThread();
+    }
+}
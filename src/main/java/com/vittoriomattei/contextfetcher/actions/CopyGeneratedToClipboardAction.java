@@ -5,10 +5,10 @@ import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.ide.CopyPasteManager;
 import com.vittoriomattei.contextfetcher.services.ContextGeneratorService;
+import com.vittoriomattei.contextfetcher.util.ContextTransferable;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
-import java.awt.datatransfer.StringSelection;
 import java.util.Objects;
 
 public class CopyGeneratedToClipboardAction extends AnAction {
@@ -19,18 +19,25 @@ public class CopyGeneratedToClipboardAction extends AnAction {
 
         var context = service.getCurrentContext();
         if (!context.isEmpty()) {
-            CopyPasteManager.getInstance().setContents(new StringSelection(context));
+            copyToClipboard(service, context, "Copied context to clipboard");
+        }
+
+    }
 
+    /**
+     * Puts {@code text} on the clipboard without copying it, the characters are read when they are pasted
+     */
+    static void copyToClipboard(ContextGeneratorService service, CharSequence text, String message) {
+        CopyPasteManager.getInstance().setContents(new ContextTransferable(text));
 
-            String originalText = service.getStatus();
-            service.setStatus("Copied to clipboard!");
 
-            Timer timer = new Timer(2000, ev -> service.setStatus(originalText));
-            timer.setRepeats(false);
-            timer.start();
-            service.setStatus("Copied context to clipboard");
-        }
+        String originalText = service.getStatus();
+        service.setStatus("Copied to clipboard!");
 
+        Timer timer = new Timer(2000, ev -> service.setStatus(originalText));
+        timer.setRepeats(false);
+        timer.start();
+        service.setStatus(message);
     }
 
     @Override
@@ -20,7 +20,7 @@ public class GenerateContextAction extends AnAction {
 
         var contextGeneratorService = project.getService(ContextGeneratorService.class);
         var fileAggregatorService = project.getService(FileAggregatorService.class);
-        contextGeneratorService.generateContext(fileAggregatorService.getSortedItems());
+        contextGeneratorService.generateContextInBackground(project, fileAggregatorService.getSortedItems());
     }
 
     @Override
@@ -28,7 +28,7 @@ public class GenerateContextAction extends AnAction {
         super.update(e);
         var project = e.getProject();
         var service = Objects.requireNonNull(project).getService(FileAggregatorService.class);
-        e.getPresentation().setEnabled(service.getFileCount() + service.getSnippetCount() > 0);
+        e.getPresentation().setEnabled(!service.getStatistics().isEmpty());
     }
 
     @Override
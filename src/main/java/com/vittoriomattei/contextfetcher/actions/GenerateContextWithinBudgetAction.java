@@ -0,0 +1,74 @@
+package com.vittoriomattei.contextfetcher.actions;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.InputValidator;
+import com.intellij.openapi.ui.Messages;
+import com.vittoriomattei.contextfetcher.model.ContextBudget;
+import com.vittoriomattei.contextfetcher.services.ContextGeneratorService;
+import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
+import com.vittoriomattei.contextfetcher.services.TokenCountService;
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+public class GenerateContextWithinBudgetAction extends AnAction {
+
+    private static final String LAST_BUDGET_KEY = "ContextFetcher.LastBudget";
+    private static final String DEFAULT_BUDGET = "32k";
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        PropertiesComponent properties = PropertiesComponent.getInstance(project);
+        long currentTokens = TokenCountService.getInstance(project).getTotalTokens();
+        String input = Messages.showInputDialog(
+                project,
+                "The context has " + TokenEstimator.format(currentTokens) + ".\n" +
+                        "Budget in tokens (8000, 32k) or in size (500b, 64kb, 1mb):",
+                "Generate Context Within Budget",
+                null,
+                properties.getValue(LAST_BUDGET_KEY, DEFAULT_BUDGET),
+                new InputValidator() {
+                    @Override
+                    public boolean checkInput(String inputString) {
+                        return ContextBudget.parse(inputString) != null;
+                    }
+
+                    @Override
+                    public boolean canClose(String inputString) {
+                        return checkInput(inputString);
+                    }
+                });
+        if (input == null) {
+            return;
+        }
+        properties.setValue(LAST_BUDGET_KEY, input.trim());
+
+        var contextGeneratorService = project.getService(ContextGeneratorService.class);
+        var fileAggregatorService = project.getService(FileAggregatorService.class);
+        contextGeneratorService.generateContextInBackground(project, fileAggregatorService.getSortedItems(),
+                Objects.requireNonNull(ContextBudget.parse(input)));
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        super.update(e);
+        var project = e.getProject();
+        var service = Objects.requireNonNull(project).getService(FileAggregatorService.class);
+        e.getPresentation().setEnabled(!service.getStatistics().isEmpty());
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return super.getActionUpdateThread();
+    }
+}
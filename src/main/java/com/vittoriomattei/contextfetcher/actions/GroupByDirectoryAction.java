@@ -0,0 +1,41 @@
+package com.vittoriomattei.contextfetcher.actions;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import com.intellij.openapi.project.DumbAware;
+import com.vittoriomattei.contextfetcher.ui.panel.FileListPanel;
+import com.vittoriomattei.contextfetcher.util.DataKeys;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Switches the context files between the flat list and the tree grouped by module and directory
+ */
+public class GroupByDirectoryAction extends ToggleAction implements DumbAware {
+
+    @Override
+    public boolean isSelected(@NotNull AnActionEvent e) {
+        FileListPanel panel = e.getData(DataKeys.FILE_LIST_PANEL_KEY);
+        return panel != null && panel.isTreeMode();
+    }
+
+    @Override
+    public void setSelected(@NotNull AnActionEvent e, boolean state) {
+        FileListPanel panel = e.getData(DataKeys.FILE_LIST_PANEL_KEY);
+        if (panel != null) {
+            panel.setTreeMode(state);
+        }
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        super.update(e);
+        // Only the tool window has a file list to group
+        e.getPresentation().setEnabledAndVisible(e.getData(DataKeys.FILE_LIST_PANEL_KEY) != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.EDT;
+    }
+}
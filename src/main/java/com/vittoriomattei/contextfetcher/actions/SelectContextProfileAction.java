@@ -0,0 +1,97 @@
+package com.vittoriomattei.contextfetcher.actions;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.actionSystem.DataContext;
+import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.actionSystem.ex.ComboBoxAction;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.InputValidator;
+import com.intellij.openapi.ui.Messages;
+import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+
+/**
+ * Shows the active context profile in the toolbar, and lets the user switch, create and delete profiles
+ */
+public class SelectContextProfileAction extends ComboBoxAction {
+
+    @Override
+    protected @NotNull DefaultActionGroup createPopupActionGroup(@NotNull JComponent button, @NotNull DataContext dataContext) {
+        DefaultActionGroup group = new DefaultActionGroup();
+        Project project = CommonDataKeys.PROJECT.getData(dataContext);
+        if (project == null) {
+            return group;
+        }
+        FileAggregatorService service = project.getService(FileAggregatorService.class);
+        String activeProfile = service.getActiveProfile();
+
+        for (String name : service.getProfileNames()) {
+            DumbAwareAction switchAction = DumbAwareAction.create(name, e -> service.switchProfile(name));
+            if (name.equals(activeProfile)) {
+                switchAction.getTemplatePresentation().setIcon(AllIcons.Actions.Checked);
+            }
+            group.add(switchAction);
+        }
+        group.addSeparator();
+        group.add(DumbAwareAction.create("New Empty Profile...", e -> {
+            String name = askProfileName(project, service, "New Context Profile");
+            if (name != null && service.createProfile(name)) {
+                service.switchProfile(name);
+            }
+        }));
+        group.add(DumbAwareAction.create("Copy '" + activeProfile + "' As...", e -> {
+            String name = askProfileName(project, service, "Copy Context Profile");
+            if (name != null && service.copyProfile(activeProfile, name)) {
+                service.switchProfile(name);
+            }
+        }));
+
+        DefaultActionGroup deleteGroup = DefaultActionGroup.createPopupGroup(() -> "Delete Profile");
+        for (String name : service.getProfileNames()) {
+            if (!name.equals(activeProfile)) {
+                deleteGroup.add(DumbAwareAction.create(name, e -> service.deleteProfile(name)));
+            }
+        }
+        if (deleteGroup.getChildrenCount() > 0) {
+            group.add(deleteGroup);
+        }
+        return group;
+    }
+
+    private static @Nullable String askProfileName(Project project, FileAggregatorService service, String title) {
+        String name = Messages.showInputDialog(project, "Profile name:", title, null, null, new InputValidator() {
+            @Override
+            public boolean checkInput(String inputString) {
+                return !inputString.isBlank() && !service.getProfileNames().contains(inputString.trim());
+            }
+
+            @Override
+            public boolean canClose(String inputString) {
+                return checkInput(inputString);
+            }
+        });
+        return name != null ? name.trim() : null;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        super.update(e);
+        Project project = e.getProject();
+        e.getPresentation().setEnabledAndVisible(project != null);
+        if (project != null) {
+            e.getPresentation().setText(project.getService(FileAggregatorService.class).getActiveProfile());
+        }
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
@@ -0,0 +1,54 @@
+package com.vittoriomattei.contextfetcher.listeners;
+
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.vittoriomattei.contextfetcher.services.FileContentCache;
+import com.vittoriomattei.contextfetcher.services.TokenCountService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Drops cached file contents as soon as a file or its document changes,
+ * so stale text does not occupy the cache until it is evicted.
+ * Token counts of the changed file are refreshed as well.
+ */
+public class ContentCacheInvalidationListener implements BulkFileListener, DocumentListener {
+
+    @Override
+    public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+        FileContentCache cache = FileContentCache.getInstance();
+        for (VFileEvent event : events) {
+            VirtualFile file = event.getFile();
+            if (file != null) {
+                cache.invalidate(file);
+                refreshTokenCounts(file);
+            }
+        }
+    }
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+        VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+        if (file != null) {
+            FileContentCache.getInstance().invalidate(file);
+            refreshTokenCounts(file);
+        }
+    }
+
+    private static void refreshTokenCounts(VirtualFile file) {
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            // Projects that never showed token counts are skipped
+            TokenCountService tokenCountService = project.getServiceIfCreated(TokenCountService.class);
+            if (tokenCountService != null) {
+                tokenCountService.onContentChanged(file);
+            }
+        }
+    }
+}
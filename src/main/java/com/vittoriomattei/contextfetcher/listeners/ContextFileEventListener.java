@@ -0,0 +1,51 @@
+package com.vittoriomattei.contextfetcher.listeners;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the context in line with the file system: deleted files leave the context, renamed and moved files,
+ * and the files under renamed and moved directories, are placed again. A whole batch of VFS events, such as a branch checkout, becomes a single change of the context.
+ */
+public class ContextFileEventListener implements BulkFileListener {
+
+    private final Project project;
+
+    public ContextFileEventListener(@NotNull Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public void after(@NotNull List<? extends @NotNull VFileEvent> events) {
+        // A project that never used the context has nothing to update
+        FileAggregatorService fileService = project.getServiceIfCreated(FileAggregatorService.class);
+        if (fileService == null) {
+            return;
+        }
+
+        List<VirtualFile> deleted = new ArrayList<>();
+        List<VirtualFile> relocated = new ArrayList<>();
+        for (VFileEvent event : events) {
+            if (event instanceof VFileDeleteEvent) {
+                deleted.add(event.getFile());
+            } else if (event instanceof VFileMoveEvent
+                    || event instanceof VFilePropertyChangeEvent propertyChange && propertyChange.isRename()) {
+                relocated.add(event.getFile());
+            }
+        }
+
+        if (!deleted.isEmpty() || !relocated.isEmpty()) {
+            fileService.applyFileSystemChanges(deleted, relocated);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.vittoriomattei.contextfetcher.listeners;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.LineEdit;
+import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps snippets on the code they were taken from while their documents are edited.
+ * Only edits that add or remove lines can move a snippet, every other edit returns after counting line breaks.
+ */
+public class SnippetLineTracker implements DocumentListener {
+
+    @Override
+    public void documentChanged(@NotNull DocumentEvent event) {
+        int removedLines = StringUtil.countNewLines(event.getOldFragment());
+        int insertedLines = StringUtil.countNewLines(event.getNewFragment());
+        if (removedLines == insertedLines) {
+            return;
+        }
+
+        Document document = event.getDocument();
+        VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        if (file == null) {
+            return;
+        }
+        int line = document.getLineNumber(event.getOffset());
+        LineEdit edit = new LineEdit(line, removedLines, insertedLines,
+                event.getOffset() == document.getLineStartOffset(line));
+
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            FileAggregatorService fileService = project.getServiceIfCreated(FileAggregatorService.class);
+            if (fileService != null) {
+                fileService.applyLineEdit(file, edit);
+            }
+        }
+    }
+}
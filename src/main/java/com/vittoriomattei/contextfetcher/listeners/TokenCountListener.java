@@ -0,0 +1,6 @@
+package com.vittoriomattei.contextfetcher.listeners;
+
+@FunctionalInterface
+public interface TokenCountListener {
+    void onTokenCountsChanged(long totalTokens);
+}
@@ -0,0 +1,101 @@
+package com.vittoriomattei.contextfetcher.model;
+
+import com.vittoriomattei.contextfetcher.util.TokenCounter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Upper bound for the size of a generated context, in UTF-8 bytes or in tokens.
+ */
+public record ContextBudget(long limit, @NotNull Unit unit) {
+
+    public enum Unit {
+        BYTES,
+        TOKENS
+    }
+
+    public ContextBudget {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + limit);
+        }
+    }
+
+    public static @NotNull ContextBudget tokens(long limit) {
+        return new ContextBudget(limit, Unit.TOKENS);
+    }
+
+    public static @NotNull ContextBudget bytes(long limit) {
+        return new ContextBudget(limit, Unit.BYTES);
+    }
+
+    /**
+     * Parses a budget typed by the user: a token count such as {@code 8000} or {@code 32k},
+     * or a size such as {@code 500b}, {@code 64kb} or {@code 2mb}.
+     * @return the budget, or null if the text is not a valid budget
+     */
+    public static @Nullable ContextBudget parse(@NotNull String text) {
+        String value = text.trim().toLowerCase(Locale.ROOT).replace("_", "");
+        Unit unit = Unit.TOKENS;
+        long multiplier = 1;
+        int suffixLength = 0;
+        if (value.endsWith("kb")) {
+            unit = Unit.BYTES;
+            multiplier = 1024;
+            suffixLength = 2;
+        } else if (value.endsWith("mb")) {
+            unit = Unit.BYTES;
+            multiplier = 1024 * 1024;
+            suffixLength = 2;
+        } else if (value.endsWith("b")) {
+            unit = Unit.BYTES;
+            suffixLength = 1;
+        } else if (value.endsWith("k")) {
+            multiplier = 1000;
+            suffixLength = 1;
+        }
+        String digits = value.substring(0, value.length() - suffixLength).trim();
+        try {
+            long limit = Math.multiplyExact(Long.parseLong(digits), multiplier);
+            return limit > 0 ? new ContextBudget(limit, unit) : null;
+        } catch (NumberFormatException | ArithmeticException e) {
+            // Not a number, or too large to be one once the suffix is applied
+            return null;
+        }
+    }
+
+    /**
+     * Size of {@code text} in the unit of this budget
+     */
+    public long measure(@NotNull CharSequence text, @NotNull TokenCounter tokenCounter) {
+        return unit == Unit.TOKENS ? tokenCounter.countTokens(text) : utf8Length(text, 0, text.length());
+    }
+
+    /**
+     * UTF-8 length of {@code text} between {@code start} (inclusive) and {@code end} (exclusive),
+     * computed without encoding the text
+     */
+    public static long utf8Length(@NotNull CharSequence text, int start, int end) {
+        long bytes = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return unit == Unit.TOKENS ? limit + " tokens" : limit + " bytes";
+    }
+}
@@ -0,0 +1,48 @@
+package com.vittoriomattei.contextfetcher.model;
+
+/**
+ * A document change expressed in lines: lines {@code line} to {@code line + removedLines} of the old text
+ * became lines {@code line} to {@code line + insertedLines} of the new text.
+ * @param atLineStart whether the change starts at the first column of {@code line}
+ */
+public record LineEdit(int line, int removedLines, int insertedLines, boolean atLineStart) {
+
+    public int lineDelta() {
+        return insertedLines - removedLines;
+    }
+
+    /**
+     * Maps the first line of a range to its line after the edit
+     */
+    int mapStart(int start) {
+        if (start < line) {
+            return start;
+        }
+        if (start == line) {
+            // Lines inserted in front of the range push it down
+            return atLineStart && removedLines == 0 ? start + insertedLines : start;
+        }
+        if (start < line + removedLines) {
+            return Math.min(start, line + insertedLines);
+        }
+        if (start == line + removedLines) {
+            // The tail of the last replaced line ends the new text
+            return line + insertedLines;
+        }
+        return start + lineDelta();
+    }
+
+    /**
+     * Maps the last line of a range to its line after the edit
+     */
+    int mapEnd(int end) {
+        if (end < line) {
+            return end;
+        }
+        // The end of the last edited line follows the edit, lines that were replaced are clamped to the new text
+        if (end < line + removedLines) {
+            return Math.min(end, line + insertedLines);
+        }
+        return end + lineDelta();
+    }
+}
@@ -0,0 +1,219 @@
+package com.vittoriomattei.contextfetcher.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted set of disjoint line ranges. Overlapping and adjacent ranges are merged on insert,
+ * so L10-40, L30-60 and L61-70 are stored as a single L10-70.
+ * Insert, remove and stabbing queries are O(log n) plus the number of ranges merged or split.
+ * Not thread-safe.
+ */
+public final class LineRangeSet {
+
+    // start line -> end line (inclusive), ranges never overlap or touch
+    private final TreeMap<Integer, Integer> ranges = new TreeMap<>();
+    private long lineCount;
+
+    public LineRangeSet() {
+    }
+
+    public LineRangeSet(@NotNull LineRangeSet other) {
+        ranges.putAll(other.ranges);
+        lineCount = other.lineCount;
+    }
+
+    /**
+     * Adds the lines of {@code range}, merging it with any overlapping or adjacent range
+     * @return true if at least one line was not already covered
+     */
+    public boolean add(@NotNull LineRange range) {
+        int start = range.startLine();
+        int end = range.endLine();
+
+        Map.Entry<Integer, Integer> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= end) {
+            return false; // Already fully covered
+        }
+        if (floor != null && floor.getValue() >= start - 1) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+            removeRange(floor.getKey());
+        }
+
+        Map.Entry<Integer, Integer> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end + 1) {
+            end = Math.max(end, next.getValue());
+            removeRange(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+
+        putRange(start, end);
+        return true;
+    }
+
+    /**
+     * Removes the lines of {@code range}, splitting any range that only partially overlaps it
+     * @return true if at least one line was removed
+     */
+    public boolean remove(@NotNull LineRange range) {
+        int start = range.startLine();
+        int end = range.endLine();
+        boolean removed = false;
+
+        Map.Entry<Integer, Integer> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            int floorEnd = floor.getValue();
+            if (floor.getKey() < start) {
+                putRange(floor.getKey(), start - 1);
+            } else {
+                removeRange(floor.getKey());
+            }
+            if (floorEnd > end) {
+                putRange(end + 1, floorEnd);
+            }
+            removed = true;
+        }
+
+        Map.Entry<Integer, Integer> next = ranges.higherEntry(start);
+        while (next != null && next.getKey() <= end) {
+            removeRange(next.getKey());
+            if (next.getValue() > end) {
+                putRange(end + 1, next.getValue());
+            }
+            removed = true;
+            next = ranges.higherEntry(start);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Moves the ranges to follow {@code edit}, in O(log n) plus the number of ranges ending at or after the edited line.
+     * Ranges after the edit shift by its line delta, range ends inside replaced lines are clamped to the new lines.
+     * @return true if any range moved
+     */
+    public boolean applyEdit(@NotNull LineEdit edit) {
+        Map.Entry<Integer, Integer> floor = ranges.floorEntry(edit.line());
+        int from = floor != null && floor.getValue() >= edit.line() ? floor.getKey() : edit.line();
+
+        List<LineRange> moved = new ArrayList<>();
+        boolean changed = false;
+        for (Map.Entry<Integer, Integer> entry : ranges.tailMap(from, true).entrySet()) {
+            LineRange shifted = new LineRange(edit.mapStart(entry.getKey()), edit.mapEnd(entry.getValue()));
+            changed |= shifted.startLine() != entry.getKey() || shifted.endLine() != entry.getValue();
+            moved.add(shifted);
+        }
+        if (!changed) {
+            return false;
+        }
+
+        // Clamped ranges can touch their neighbours, adding them back merges them again
+        for (Integer start : new ArrayList<>(ranges.tailMap(from, true).keySet())) {
+            removeRange(start);
+        }
+        for (LineRange range : moved) {
+            add(range);
+        }
+        return true;
+    }
+
+    /**
+     * Stabbing query: the stored range covering {@code line}, or null if the line is not covered
+     */
+    public @Nullable LineRange rangeContaining(int line) {
+        Map.Entry<Integer, Integer> floor = ranges.floorEntry(line);
+        if (floor == null || floor.getValue() < line) {
+            return null;
+        }
+        return new LineRange(floor.getKey(), floor.getValue());
+    }
+
+    public boolean contains(int line) {
+        return rangeContaining(line) != null;
+    }
+
+    /**
+     * Checks whether every line of {@code range} is covered
+     */
+    public boolean covers(@NotNull LineRange range) {
+        LineRange containing = rangeContaining(range.startLine());
+        return containing != null && containing.endLine() >= range.endLine();
+    }
+
+    /**
+     * Checks whether any line of {@code range} is covered
+     */
+    public boolean intersects(@NotNull LineRange range) {
+        Map.Entry<Integer, Integer> floor = ranges.floorEntry(range.endLine());
+        return floor != null && floor.getValue() >= range.startLine();
+    }
+
+    public int size() {
+        return ranges.size();
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * Gets the number of covered lines, in O(1)
+     */
+    public long lineCount() {
+        return lineCount;
+    }
+
+    public void clear() {
+        ranges.clear();
+        lineCount = 0;
+    }
+
+    /**
+     * Gets the normalized ranges in ascending line order
+     */
+    public @NotNull List<LineRange> toList() {
+        List<LineRange> result = new ArrayList<>(ranges.size());
+        for (Map.Entry<Integer, Integer> entry : ranges.entrySet()) {
+            result.add(new LineRange(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    private void putRange(int start, int end) {
+        Integer previousEnd = ranges.put(start, end);
+        if (previousEnd != null) {
+            lineCount -= previousEnd - start + 1;
+        }
+        lineCount += end - start + 1;
+    }
+
+    private void removeRange(int start) {
+        Integer end = ranges.remove(start);
+        if (end != null) {
+            lineCount -= end - start + 1;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        return ranges.equals(((LineRangeSet) obj).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return ranges.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "LineRangeSet" + toList();
+    }
+}
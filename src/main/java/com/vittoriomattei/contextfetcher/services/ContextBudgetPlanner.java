@@ -0,0 +1,137 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides how each item of a context is rendered so the context fits a budget, in O(n log n).
+ * Whole files are first demoted to excerpts, largest savings first. If that is not enough, items are
+ * dropped by priority: whole files before snippets, and later items before earlier ones.
+ * Finally, demoted and dropped items are brought back in priority order wherever they still fit.
+ */
+final class ContextBudgetPlanner {
+
+    enum Decision {
+        FULL,
+        EXCERPT,
+        DROPPED
+    }
+
+    /**
+     * An item to place
+     * @param group index of the item's file, whose header cost is paid once if any of its items is kept
+     * @param fullCost cost of the complete section
+     * @param excerptCost cost of the excerpt section, or -1 if the item cannot be excerpted
+     */
+    record Candidate(int group, long fullCost, long excerptCost, boolean snippet) {
+        boolean canExcerpt() {
+            return excerptCost >= 0 && excerptCost < fullCost;
+        }
+    }
+
+    private ContextBudgetPlanner() {
+    }
+
+    /**
+     * @param groupCosts header cost of each group
+     * @param fixedCost cost paid regardless of the items, such as the context header and footer
+     * @return the decision for each candidate, in the order of {@code candidates}
+     */
+    static Decision[] plan(List<Candidate> candidates, long[] groupCosts, long fixedCost, long limit) {
+        int count = candidates.size();
+        Decision[] decisions = new Decision[count];
+        Arrays.fill(decisions, Decision.FULL);
+
+        int[] keptPerGroup = new int[groupCosts.length];
+        long total = fixedCost;
+        for (Candidate candidate : candidates) {
+            if (keptPerGroup[candidate.group()]++ == 0) {
+                total += groupCosts[candidate.group()];
+            }
+            total += candidate.fullCost();
+        }
+        if (total <= limit) {
+            return decisions;
+        }
+
+        // Demote whole files to excerpts, the ones saving most first
+        List<Integer> demotable = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (candidates.get(i).canExcerpt()) {
+                demotable.add(i);
+            }
+        }
+        demotable.sort(Comparator.comparingLong((Integer i) -> candidates.get(i).excerptCost() - candidates.get(i).fullCost()));
+        for (int i : demotable) {
+            if (total <= limit) {
+                break;
+            }
+            total -= candidates.get(i).fullCost() - candidates.get(i).excerptCost();
+            decisions[i] = Decision.EXCERPT;
+        }
+
+        // Drop the lowest priority items until the context fits
+        List<Integer> dropOrder = dropOrder(candidates);
+        List<Integer> dropped = new ArrayList<>();
+        for (int i : dropOrder) {
+            if (total <= limit) {
+                break;
+            }
+            Candidate candidate = candidates.get(i);
+            total -= cost(candidate, decisions[i]);
+            if (--keptPerGroup[candidate.group()] == 0) {
+                total -= groupCosts[candidate.group()];
+            }
+            decisions[i] = Decision.DROPPED;
+            dropped.add(i);
+        }
+
+        // Dropping may free more room than needed, restore what fits by priority
+        for (int i = 0; i < count; i++) {
+            if (decisions[i] == Decision.EXCERPT && total + candidates.get(i).fullCost() - candidates.get(i).excerptCost() <= limit) {
+                total += candidates.get(i).fullCost() - candidates.get(i).excerptCost();
+                decisions[i] = Decision.FULL;
+            }
+        }
+        for (int d = dropped.size() - 1; d >= 0; d--) {
+            int i = dropped.get(d);
+            Candidate candidate = candidates.get(i);
+            long headerCost = keptPerGroup[candidate.group()] == 0 ? groupCosts[candidate.group()] : 0;
+            if (total + headerCost + candidate.fullCost() <= limit) {
+                decisions[i] = Decision.FULL;
+            } else if (candidate.canExcerpt() && total + headerCost + candidate.excerptCost() <= limit) {
+                decisions[i] = Decision.EXCERPT;
+            } else {
+                continue;
+            }
+            total += headerCost + cost(candidate, decisions[i]);
+            keptPerGroup[candidate.group()]++;
+        }
+        return decisions;
+    }
+
+    private static List<Integer> dropOrder(List<Candidate> candidates) {
+        List<Integer> order = new ArrayList<>(candidates.size());
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (!candidates.get(i).snippet()) {
+                order.add(i);
+            }
+        }
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (candidates.get(i).snippet()) {
+                order.add(i);
+            }
+        }
+        return order;
+    }
+
+    private static long cost(Candidate candidate, Decision decision) {
+        return switch (decision) {
+            case FULL -> candidate.fullCost();
+            case EXCERPT -> candidate.excerptCost();
+            case DROPPED -> 0;
+        };
+    }
+}
@@ -1,113 +1,556 @@
 package com.vittoriomattei.contextfetcher.services;
 
 import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.fileTypes.UnknownFileType;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtilRt;
-import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.vittoriomattei.contextfetcher.listeners.ContextUpdateListener;
+import com.vittoriomattei.contextfetcher.model.ContextBudget;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
 import com.vittoriomattei.contextfetcher.model.LineRange;
+import com.vittoriomattei.contextfetcher.util.LineIndex;
+import com.vittoriomattei.contextfetcher.util.TokenCounter;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ContextGeneratorService{
 
+    private static final Logger LOG = Logger.getInstance(ContextGeneratorService.class);
+
+    // Bounded so a large context cannot flood the shared application pool
+    private static final ExecutorService FILE_LOADER = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "ContextFetcher File Loader", Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final String CONTEXT_HEADER = "# --- Code context ---\n\n";
+    private static final String CONTEXT_FOOTER = "# End of code context\n\n";
+    private static final String UNREADABLE_CONTENT = " ... file content could not be loaded ...\n\n";
+
+    // Lines kept from the start and the end of a whole file shortened to fit a budget
+    private static final int EXCERPT_HEAD_LINES = 40;
+    private static final int EXCERPT_TAIL_LINES = 10;
+
+    private static final String SECTION_END = "\n```\n\n";
+
+    // Per-item sizes for budgeted generation, and the counter measuring everything around them
+    private final TokenCountService tokenCountService;
+    private final FileContentSource contentSource = new FileContentSource(FileContentCache.getInstance());
+
     private String currentContext = "";
     private String status = "";
 
+    // Rendered item sections of the last generation, reused while the item's content stamp is unchanged
+    private volatile Map<FileContextItem, SectionFragment> sectionFragments = Map.of();
+
+    private final AtomicLong generationCounter = new AtomicLong();
+    private final AtomicReference<ProgressIndicator> runningGeneration = new AtomicReference<>();
+
     private final CopyOnWriteArrayList<ContextUpdateListener> contextUpdateListeners = new CopyOnWriteArrayList<>();
 
+    public ContextGeneratorService(@NotNull Project project) {
+        this(TokenCountService.getInstance(project));
+    }
+
+    ContextGeneratorService(@NotNull TokenCountService tokenCountService) {
+        this.tokenCountService = tokenCountService;
+    }
+
+    /**
+     * Generates the context and publishes it to the listeners.
+     * Only sections that were added or whose file changed since the previous generation are rendered again,
+     * the other sections are spliced in from the previous output.
+     */
     public String generateContext(List<FileContextItem> fileItems) {
+        // Group items by file to avoid loading file content multiple times
+        Map<VirtualFile, List<FileContextItem>> groupedItems = groupByFile(fileItems);
+        Map<VirtualFile, Long> stamps = ReadAction.compute(() -> contentStamps(groupedItems.keySet()));
+
+        return publish(renderIncrementally(groupedItems, stamps, this::loadContentInReadAction));
+    }
+
+    /**
+     * Writes the context section by section to {@code sink}, loading one file at a time,
+     * so the whole document is never held in memory. Sections of the previous generation are reused,
+     * but the sections written here are not kept. The current context is not updated and listeners are not notified.
+     * @return the status summary of the written context
+     */
+    public String generateContext(@NotNull List<FileContextItem> fileItems, @NotNull Appendable sink) throws IOException {
+        Map<VirtualFile, List<FileContextItem>> groupedItems = groupByFile(fileItems);
+        Map<VirtualFile, Long> stamps = ReadAction.compute(() -> contentStamps(groupedItems.keySet()));
+
+        return writeContext(groupedItems, stamps, this::loadContentInReadAction, sink, false);
+    }
+
+    /**
+     * Generates the context loading files in parallel on a bounded pool.
+     * The output is identical to {@link #generateContext(List)}: sections keep the order of {@code fileItems}.
+     * Must be called off the EDT, cancellation is checked through {@code indicator}.
+     */
+    public String generateContext(@NotNull List<FileContextItem> fileItems, @NotNull ProgressIndicator indicator) {
+        return publish(renderInParallel(fileItems, indicator));
+    }
+
+    /**
+     * Generates a context that fits {@code budget} in a single pass. If all items do not fit, whole files are
+     * shortened to their first and last lines and low priority items are dropped, see {@link ContextBudgetPlanner}.
+     * Items are sized with the cached counts of the {@link TokenCountService}, only the kept sections are rendered.
+     * Must be called off the EDT, cancellation is checked through {@code indicator}.
+     */
+    public String generateContext(@NotNull List<FileContextItem> fileItems, @NotNull ContextBudget budget,
+                                  @NotNull ProgressIndicator indicator) {
+        return publish(renderWithinBudget(fileItems, budget, indicator));
+    }
+
+    /**
+     * Runs the parallel generation as a cancellable background task with progress.
+     * Starting a new generation cancels the running one, and only the latest result is published.
+     */
+    public void generateContextInBackground(@NotNull Project project, @NotNull List<FileContextItem> fileItems) {
+        queueGeneration(project, indicator -> renderInParallel(fileItems, indicator));
+    }
+
+    /**
+     * Runs the budgeted generation as a cancellable background task, like {@link #generateContextInBackground(Project, List)}.
+     */
+    public void generateContextInBackground(@NotNull Project project, @NotNull List<FileContextItem> fileItems,
+                                            @NotNull ContextBudget budget) {
+        queueGeneration(project, indicator -> renderWithinBudget(fileItems, budget, indicator));
+    }
+
+    private void queueGeneration(Project project, Function<ProgressIndicator, RenderedContext> renderer) {
+        long generation = generationCounter.incrementAndGet();
+
+        new Task.Backgroundable(project, "Generating context", true) {
+            private RenderedContext result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                ProgressIndicator previous = runningGeneration.getAndSet(indicator);
+                if (previous != null) {
+                    previous.cancel();
+                }
+                try {
+                    result = renderer.apply(indicator);
+                } finally {
+                    runningGeneration.compareAndSet(indicator, null);
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                if (result != null && generation == generationCounter.get()) {
+                    publish(result);
+                }
+            }
+        }.queue();
+    }
+
+    private RenderedContext renderInParallel(List<FileContextItem> fileItems, ProgressIndicator indicator) {
+        Map<VirtualFile, List<FileContextItem>> groupedItems = groupByFile(fileItems);
+        Map<VirtualFile, Long> stamps = ReadAction.compute(() -> contentStamps(groupedItems.keySet()));
+
+        // Only files with a missing or stale section need to be loaded
+        Map<FileContextItem, SectionFragment> previous = sectionFragments;
+        List<VirtualFile> staleFiles = new ArrayList<>();
+        for (Map.Entry<VirtualFile, List<FileContextItem>> fileEntry : groupedItems.entrySet()) {
+            long stamp = stamps.get(fileEntry.getKey());
+            for (FileContextItem item : fileEntry.getValue()) {
+                SectionFragment fragment = previous.get(item);
+                if (fragment == null || fragment.contentStamp() != stamp) {
+                    staleFiles.add(fileEntry.getKey());
+                    break;
+                }
+            }
+        }
+
+        Map<VirtualFile, CharSequence> contents = loadContentsInParallel(staleFiles, indicator);
+        indicator.checkCanceled();
+
+        // A file renamed to another language is not in the stale list, it is loaded on demand
+        return renderIncrementally(groupedItems, stamps,
+                virtualFile -> contents.computeIfAbsent(virtualFile, this::loadContentInReadAction));
+    }
+
+    private RenderedContext renderWithinBudget(List<FileContextItem> fileItems, ContextBudget budget, ProgressIndicator indicator) {
+        TokenCounter tokenCounter = tokenCountService.getTokenCounter();
+        Map<VirtualFile, List<FileContextItem>> groupedItems = groupByFile(fileItems);
+        Map<VirtualFile, Long> stamps = ReadAction.compute(() -> contentStamps(groupedItems.keySet()));
+
+        // Content sizes come from the cached counts, only files with an item not counted for their content are loaded
+        List<VirtualFile> files = new ArrayList<>(groupedItems.keySet());
+        List<FileContextItem> items = new ArrayList<>(fileItems.size());
+        List<ContextBudgetPlanner.Candidate> candidates = new ArrayList<>(fileItems.size());
+        long[] contentSizes = new long[fileItems.size()];
+        Set<VirtualFile> uncountedFiles = new LinkedHashSet<>();
+        for (int group = 0; group < files.size(); group++) {
+            VirtualFile virtualFile = files.get(group);
+            for (FileContextItem item : groupedItems.get(virtualFile)) {
+                contentSizes[items.size()] = tokenCountService.getContentSize(item, stamps.get(virtualFile), budget.unit());
+                if (contentSizes[items.size()] == TokenCountService.UNKNOWN) {
+                    uncountedFiles.add(virtualFile);
+                }
+                items.add(item);
+            }
+        }
+        Map<VirtualFile, CharSequence> contents = new HashMap<>(loadContentsInParallel(new ArrayList<>(uncountedFiles), indicator));
+        Map<VirtualFile, LineIndex> lineIndexes = new HashMap<>();
+        indicator.checkCanceled();
+
+        String[] languages = new String[files.size()];
+        long[] headerCosts = new long[files.size()];
+        long fixedCost = budget.measure(CONTEXT_HEADER, tokenCounter) + budget.measure(CONTEXT_FOOTER, tokenCounter);
+        long total = fixedCost;
+        long sectionEndCost = budget.measure(SECTION_END, tokenCounter);
+        for (int group = 0, i = 0; group < files.size(); group++) {
+            VirtualFile virtualFile = files.get(group);
+            languages[group] = languageOf(virtualFile);
+            headerCosts[group] = budget.measure(fileHeader(virtualFile), tokenCounter);
+            total += headerCosts[group];
+            for (FileContextItem item : groupedItems.get(virtualFile)) {
+                if (contentSizes[i] == TokenCountService.UNKNOWN) {
+                    CharSequence content = contents.get(virtualFile);
+                    CharSequence counted = item.isSnippet()
+                            ? snippetContent(content, lineIndexes.computeIfAbsent(virtualFile, file -> LineIndex.of(content)), item.getLineRange())
+                            : content;
+                    contentSizes[i] = budget.measure(counted, tokenCounter);
+                }
+                long fullCost = budget.measure(sectionStart(item, languages[group]), tokenCounter) + contentSizes[i] + sectionEndCost;
+                candidates.add(new ContextBudgetPlanner.Candidate(group, fullCost, -1, item.isSnippet()));
+                total += fullCost;
+                i++;
+            }
+        }
+
+        // Excerpts only matter when the complete sections do not fit, they need the content of the whole files
+        Map<Integer, String> excerptSections = new HashMap<>();
+        if (total > budget.limit()) {
+            loadMissingContents(contents, files.stream().filter(file -> groupedItems.get(file).stream().anyMatch(item -> !item.isSnippet())), indicator);
+            for (int i = 0; i < items.size(); i++) {
+                ContextBudgetPlanner.Candidate candidate = candidates.get(i);
+                if (candidate.snippet()) {
+                    continue;
+                }
+                VirtualFile virtualFile = files.get(candidate.group());
+                CharSequence content = contents.get(virtualFile);
+                String excerptSection = renderExcerptSection(content,
+                        lineIndexes.computeIfAbsent(virtualFile, file -> LineIndex.of(content)), languages[candidate.group()]);
+                if (excerptSection != null) {
+                    excerptSections.put(i, excerptSection);
+                    candidates.set(i, new ContextBudgetPlanner.Candidate(candidate.group(), candidate.fullCost(),
+                            budget.measure(excerptSection, tokenCounter), false));
+                }
+            }
+        }
+
+        ContextBudgetPlanner.Decision[] decisions = ContextBudgetPlanner.plan(candidates, headerCosts, fixedCost, budget.limit());
+
+        // Only the files of complete sections that are kept are still to be loaded
+        List<VirtualFile> keptFiles = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (decisions[i] == ContextBudgetPlanner.Decision.FULL) {
+                keptFiles.add(files.get(candidates.get(i).group()));
+            }
+        }
+        loadMissingContents(contents, keptFiles.stream().distinct(), indicator);
+
         StringBuilder context = new StringBuilder();
-        context.append("# --- Code context ---\n\n");
+        context.append(CONTEXT_HEADER);
 
         int filesCount = 0;
         int snippetsCount = 0;
+        int excerptsCount = 0;
+        int droppedCount = 0;
+        int writtenGroup = -1;
 
-        // Group items by file to avoid loading file content multiple times
-        Map<VirtualFile, List<FileContextItem>> groupedItems = fileItems.stream()
-                .collect(Collectors.groupingBy(FileContextItem::getVirtualFile));
-
-        for (VirtualFile virtualFile : groupedItems.keySet()) {
-            String filePath = virtualFile.getPresentableUrl();
-            context.append("## File: ").append(filePath).append(":\n\n");
-
-            String content = ReadAction.compute(
-                    () -> {
-                        try {
-                            return StringUtil.convertLineSeparators(VfsUtil.loadText(virtualFile));
-                        } catch (IOException e) {
-                            System.err.println("Error reading string content with streams: " + e.getMessage());
-                            return " ... file content could not be loaded ...\n\n";
-                        }
+        for (int i = 0; i < items.size(); i++) {
+            if (decisions[i] == ContextBudgetPlanner.Decision.DROPPED) {
+                droppedCount++;
+                continue;
+            }
+            int group = candidates.get(i).group();
+            VirtualFile virtualFile = files.get(group);
+            if (group != writtenGroup) {
+                context.append(fileHeader(virtualFile));
+                writtenGroup = group;
+            }
+            FileContextItem item = items.get(i);
+            if (decisions[i] == ContextBudgetPlanner.Decision.EXCERPT) {
+                context.append(excerptSections.get(i));
+                excerptsCount++;
+            } else {
+                CharSequence content = contents.get(virtualFile);
+                context.append(sectionStart(item, languages[group]))
+                        .append(item.isSnippet()
+                                ? snippetContent(content, lineIndexes.computeIfAbsent(virtualFile, file -> LineIndex.of(content)), item.getLineRange())
+                                : content)
+                        .append(SECTION_END);
+            }
+            if (item.isSnippet()) {
+                snippetsCount++;
+            } else {
+                filesCount++;
+            }
+        }
+
+        context.append(CONTEXT_FOOTER);
+
+        String status = formatStatus(filesCount, snippetsCount);
+        if (excerptsCount > 0 || droppedCount > 0) {
+            status += String.format(" (%d shortened, %d dropped to fit %s)", excerptsCount, droppedCount, budget);
+        }
+        return new RenderedContext(context.toString(), status);
+    }
+
+    private void loadMissingContents(Map<VirtualFile, CharSequence> contents, Stream<VirtualFile> files, ProgressIndicator indicator) {
+        List<VirtualFile> missing = files.filter(file -> !contents.containsKey(file)).toList();
+        if (!missing.isEmpty()) {
+            contents.putAll(loadContentsInParallel(missing, indicator));
+            indicator.checkCanceled();
+        }
+    }
+
+    private Map<VirtualFile, CharSequence> loadContentsInParallel(List<VirtualFile> files, ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+
+        List<Future<CharSequence>> futures = new ArrayList<>(files.size());
+        for (VirtualFile virtualFile : files) {
+            futures.add(FILE_LOADER.submit(() -> {
+                indicator.checkCanceled();
+                return loadContentInReadAction(virtualFile);
+            }));
+        }
+
+        Map<VirtualFile, CharSequence> contents = new HashMap<>(files.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                indicator.setText2(files.get(i).getPresentableUrl());
+                contents.put(files.get(i), ProgressIndicatorUtils.awaitWithCheckCanceled(futures.get(i), indicator));
+                indicator.setFraction((double) (i + 1) / futures.size());
+            }
+        } finally {
+            if (contents.size() < futures.size()) {
+                futures.forEach(future -> future.cancel(true));
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Renders the context in memory and keeps its sections for the next generation, see {@link #writeContext}
+     */
+    private RenderedContext renderIncrementally(Map<VirtualFile, List<FileContextItem>> groupedItems,
+                                                Map<VirtualFile, Long> stamps,
+                                                Function<VirtualFile, CharSequence> contents) {
+        StringBuilder context = new StringBuilder();
+        try {
+            String status = writeContext(groupedItems, stamps, contents, context, true);
+            return new RenderedContext(context.toString(), status);
+        } catch (IOException e) {
+            // StringBuilder never throws, only a real I/O sink can fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the context to {@code sink}, splicing the previous sections of unchanged items with freshly rendered
+     * sections of added or stale items. With {@code keepSections}, the written sections replace the previous ones
+     * and sections of items that are no longer part of the context are dropped.
+     * Stamps must be read before the contents, so a change in between only causes an extra render next time.
+     * @return the status summary of the written context
+     */
+    private String writeContext(Map<VirtualFile, List<FileContextItem>> groupedItems,
+                                Map<VirtualFile, Long> stamps,
+                                Function<VirtualFile, CharSequence> contents,
+                                Appendable sink,
+                                boolean keepSections) throws IOException {
+        Map<FileContextItem, SectionFragment> previous = sectionFragments;
+        Map<FileContextItem, SectionFragment> current = new HashMap<>();
+
+        sink.append(CONTEXT_HEADER);
+
+        int filesCount = 0;
+        int snippetsCount = 0;
+
+        for (Map.Entry<VirtualFile, List<FileContextItem>> fileEntry : groupedItems.entrySet()) {
+            VirtualFile virtualFile = fileEntry.getKey();
+            long stamp = stamps.get(virtualFile);
+            String language = languageOf(virtualFile);
+
+            CharSequence content = null;
+            // Built at most once per file, so each snippet costs its own length rather than the file's
+            LineIndex lineIndex = null;
+
+            sink.append(fileHeader(virtualFile));
+            for (FileContextItem item : fileEntry.getValue()) {
+                SectionFragment fragment = previous.get(item);
+                if (fragment == null || fragment.contentStamp() != stamp || !fragment.language().equals(language)) {
+                    if (content == null) {
+                        content = contents.apply(virtualFile);
+                    }
+                    if (item.isSnippet() && lineIndex == null) {
+                        lineIndex = LineIndex.of(content);
+                    }
+                    if (keepSections) {
+                        fragment = new SectionFragment(stamp, language, renderItemSection(item, content, lineIndex, language));
+                    } else {
+                        // Written straight to the sink, so the section is never held in memory
+                        appendItemSection(sink, item, content, lineIndex, language);
+                        fragment = null;
                     }
-            );
-
-            var fileType = FileTypeManager.getInstance().getFileTypeByExtension(FileUtilRt.getExtension(virtualFile.getName()));
-            String extension = fileType != UnknownFileType.INSTANCE ? fileType.getName().toLowerCase() : "";
-            
-            List<FileContextItem> itemsForFile = groupedItems.get(virtualFile);
-            
-            for (FileContextItem item : itemsForFile) {
+                }
+                if (fragment != null) {
+                    // Sections of unreadable files are not kept, so the next generation retries them
+                    if (keepSections && content != UNREADABLE_CONTENT) {
+                        current.put(item, fragment);
+                    }
+                    sink.append(fragment.text());
+                }
+
                 if (item.isSnippet()) {
-                    LineRange lineRange = item.getLineRange();
-                    context.append("### L").append(lineRange.startLine() + 1).append("-").append(lineRange.endLine() + 1).append("\n```").append(extension).append("\n");
-                    context.append(getSnippet(content, lineRange.startLine(), lineRange.endLine()));
-                    context.append("\n```\n\n");
                     snippetsCount++;
                 } else {
-                    // Whole file
-                    context.append("```").append(extension).append("\n").append(content).append("\n```\n\n");
                     filesCount++;
                 }
             }
         }
 
-        context.append("# End of code context\n\n");
+        sink.append(CONTEXT_FOOTER);
 
-        String status = String.format("Context generated: %d file(s)", filesCount);
-        if (snippetsCount > 0) {
-            status += String.format(", %d snippet(s)", snippetsCount);
+        if (keepSections) {
+            sectionFragments = current;
         }
+        return formatStatus(filesCount, snippetsCount);
+    }
 
-        currentContext = context.toString();
-        this.status = status;
-        notifyContextUpdateListeners(context.toString(), status);
-        return currentContext;
+    private static Map<VirtualFile, List<FileContextItem>> groupByFile(List<FileContextItem> fileItems) {
+        return fileItems.stream()
+                .collect(Collectors.groupingBy(FileContextItem::getVirtualFile, LinkedHashMap::new, Collectors.toList()));
     }
 
-    private String getSnippet(String fileContent, int lineStart, int lineEnd) {
-        if (fileContent == null || fileContent.isEmpty()) {
-            return "";
+    private Map<VirtualFile, Long> contentStamps(Iterable<VirtualFile> files) {
+        Map<VirtualFile, Long> stamps = new HashMap<>();
+        for (VirtualFile virtualFile : files) {
+            stamps.put(virtualFile, contentSource.getContentStamp(virtualFile));
         }
+        return stamps;
+    }
 
-        // Ensure lineStart and lineEnd are valid and in order
-        if (lineStart < 0) {
-            lineStart = 0;
-        }
-        if (lineEnd < lineStart) {
-            lineEnd = lineStart;
+    private CharSequence loadContentInReadAction(VirtualFile virtualFile) {
+        return ReadAction.compute(() -> loadContent(virtualFile));
+    }
+
+    private CharSequence loadContent(VirtualFile virtualFile) {
+        try {
+            return contentSource.getContent(virtualFile);
+        } catch (IOException e) {
+            LOG.warn("Could not load content of " + virtualFile.getPath(), e);
+            return UNREADABLE_CONTENT;
         }
+    }
 
-        try (BufferedReader reader = new BufferedReader(new StringReader(fileContent))) {
-            return reader.lines() // Get a Stream of lines
-                    .skip(lineStart) // Skip lines before the start
-                    .limit(lineEnd - lineStart + 1) // Take the desired number of lines
-                    .collect(Collectors.joining("\n")); // Join them with newlines
+    private static String languageOf(VirtualFile virtualFile) {
+        var fileType = FileTypeManager.getInstance().getFileTypeByExtension(FileUtilRt.getExtension(virtualFile.getName()));
+        return fileType != UnknownFileType.INSTANCE ? fileType.getName().toLowerCase() : "";
+    }
+
+    private static String fileHeader(VirtualFile virtualFile) {
+        return "## File: " + virtualFile.getPresentableUrl() + ":\n\n";
+    }
+
+    private static String renderItemSection(FileContextItem item, CharSequence content, LineIndex lineIndex, String language) {
+        StringBuilder section = new StringBuilder();
+        try {
+            appendItemSection(section, item, content, lineIndex, language);
         } catch (IOException e) {
-            System.err.println("Error reading string content with streams: " + e.getMessage());
-            return " ... snippet could not be loaded ...\n\n";
+            // StringBuilder never throws, only a real I/O sink can fail
+            throw new IllegalStateException(e);
         }
+        return section.toString();
+    }
+
+    /**
+     * Section with only the first and last lines of a whole file, or null if the file is too short to be shortened
+     */
+    private static String renderExcerptSection(CharSequence content, LineIndex lineIndex, String language) {
+        int lineCount = lineIndex.getLineCount();
+        if (lineCount <= EXCERPT_HEAD_LINES + EXCERPT_TAIL_LINES) {
+            return null;
+        }
+        int tailStart = lineCount - EXCERPT_TAIL_LINES;
+        return "```" + language + "\n" +
+                content.subSequence(0, lineIndex.getLineEndOffset(EXCERPT_HEAD_LINES - 1)) +
+                "\n... " + (tailStart - EXCERPT_HEAD_LINES) + " lines omitted ...\n" +
+                content.subSequence(lineIndex.getLineStartOffset(tailStart), lineIndex.getLineEndOffset(lineCount - 1)) +
+                "\n```\n\n";
+    }
+
+    private static void appendItemSection(Appendable sink, FileContextItem item, CharSequence content,
+                                          LineIndex lineIndex, String language) throws IOException {
+        sink.append(sectionStart(item, language))
+                .append(item.isSnippet() ? snippetContent(content, lineIndex, item.getLineRange()) : content)
+                .append(SECTION_END);
+    }
+
+    /**
+     * Start of the section of {@code item}, up to its content, which is followed by {@link #SECTION_END}
+     */
+    private static String sectionStart(FileContextItem item, String language) {
+        if (item.isSnippet()) {
+            LineRange lineRange = item.getLineRange();
+            return "### L" + (lineRange.startLine() + 1) + "-" + (lineRange.endLine() + 1) + "\n```" + language + "\n";
+        }
+        // Whole file
+        return "```" + language + "\n";
+    }
+
+    private static CharSequence snippetContent(CharSequence fileContent, LineIndex lineIndex, LineRange lineRange) {
+        // Ensure lineStart and lineEnd are valid and in order
+        int lineStart = Math.max(lineRange.startLine(), 0);
+        int lineEnd = Math.max(lineRange.endLine(), lineStart);
+        if (lineStart >= lineIndex.getLineCount()) {
+            return "";
+        }
+        lineEnd = Math.min(lineEnd, lineIndex.getLineCount() - 1);
+
+        return CharBuffer.wrap(fileContent, lineIndex.getLineStartOffset(lineStart), lineIndex.getLineEndOffset(lineEnd));
+    }
+
+    private static String formatStatus(int filesCount, int snippetsCount) {
+        String status = String.format("Context generated: %d file(s)", filesCount);
+        if (snippetsCount > 0) {
+            status += String.format(", %d snippet(s)", snippetsCount);
+        }
+        return status;
+    }
+
+    private String publish(RenderedContext rendered) {
+        currentContext = rendered.context();
+        this.status = rendered.status();
+        notifyContextUpdateListeners(currentContext, status);
+        return currentContext;
     }
 
     public String getCurrentContext() {
@@ -143,4 +586,10 @@ public class ContextGeneratorService{
         contextUpdateListeners.remove(listener);
     }
 
+    private record RenderedContext(String context, String status) {
+    }
+
+    private record SectionFragment(long contentStamp, String language, String text) {
+    }
+
 }
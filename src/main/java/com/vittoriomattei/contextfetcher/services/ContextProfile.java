@@ -0,0 +1,70 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Items and running totals of one named context.
+ * A profile copied from another shares its {@link FileEntry} objects: only the map is copied, one reference
+ * per file, and a shared entry is copied by whichever profile changes it first.
+ */
+final class ContextProfile {
+
+    private final String name;
+    // One entry per tracked file, so lookups and duplicate checks never scan other files
+    final ConcurrentHashMap<VirtualFile, FileEntry> entries;
+    // Running totals, adjusted by every mutation so statistics never scan the entries
+    final AtomicInteger wholeFileCount;
+    final AtomicInteger snippetCount;
+    final AtomicLong snippetLineCount;
+    final AtomicLong wholeFileBytes;
+    // Loaded files that are not restored yet, saved back unchanged if the project is saved before the restore ends
+    volatile Map<String, String> pendingRestore = Map.of();
+    // Held while a restored chunk is applied, so clearing the profile cannot interleave with it
+    final Object restoreLock = new Object();
+
+    ContextProfile(@NotNull String name) {
+        this.name = name;
+        this.entries = new ConcurrentHashMap<>();
+        this.wholeFileCount = new AtomicInteger();
+        this.snippetCount = new AtomicInteger();
+        this.snippetLineCount = new AtomicLong();
+        this.wholeFileBytes = new AtomicLong();
+    }
+
+    private ContextProfile(@NotNull String name, @NotNull ContextProfile source) {
+        this.name = name;
+        this.entries = new ConcurrentHashMap<>(source.entries);
+        this.wholeFileCount = new AtomicInteger(source.wholeFileCount.get());
+        this.snippetCount = new AtomicInteger(source.snippetCount.get());
+        this.snippetLineCount = new AtomicLong(source.snippetLineCount.get());
+        this.wholeFileBytes = new AtomicLong(source.wholeFileBytes.get());
+        this.pendingRestore = source.pendingRestore;
+    }
+
+    @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * Copies this profile in O(files). The source must not change during the copy.
+     */
+    @NotNull ContextProfile copy(@NotNull String copyName) {
+        for (FileEntry entry : entries.values()) {
+            entry.share();
+        }
+        return new ContextProfile(copyName, this);
+    }
+
+    void account(@NotNull FileEntry.Stats before, @NotNull FileEntry.Stats after) {
+        wholeFileCount.addAndGet(after.wholeFiles() - before.wholeFiles());
+        snippetCount.addAndGet(after.snippets() - before.snippets());
+        snippetLineCount.addAndGet(after.snippetLines() - before.snippetLines());
+        wholeFileBytes.addAndGet(after.bytes() - before.bytes());
+    }
+}
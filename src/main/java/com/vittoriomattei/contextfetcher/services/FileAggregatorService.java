@@ -2,13 +2,18 @@ package com.vittoriomattei.contextfetcher.services;
 
 import com.intellij.openapi.vfs.VirtualFile;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineEdit;
 import com.vittoriomattei.contextfetcher.model.LineRange;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FileAggregatorService {
 
+    String DEFAULT_PROFILE = "Default";
+
     /**
      * Adds a complete file to the aggregator
      * @param file the file to add
@@ -24,21 +29,28 @@ public interface FileAggregatorService {
     int addFiles(@NotNull Iterable<VirtualFile> files);
 
     /**
-     * Adds a snippet from a file. If the file is already added as complete,
-     * it will be converted to a snippet-based entry.
+     * Adds a snippet from a file. Snippets cannot be added to a file that is already tracked as complete.
+     * Overlapping or adjacent snippets of the same file are merged into a single range.
      * @param file the file containing the snippet
      * @param lineRange the line range of the snippet
-     * @return true if the snippet was added
+     * @return true if the snippet added lines that were not already tracked
      */
     boolean addSnippet(@NotNull VirtualFile file, @NotNull LineRange lineRange);
 
+    /**
+     * Applies the mutations recorded by {@code mutations} with a single change notification.
+     * The mutations of each file are applied atomically, and invalid ones are skipped.
+     * @return number of mutations that changed the tracked items
+     */
+    int batch(@NotNull Consumer<MutationBuilder> mutations);
+
     /**
      * Gets all file context items
      */
     @NotNull List<FileContextItem> getAllItems();
 
     /**
-     * Gets all file context items for a specific file
+     * Gets all file context items for a specific file, snippets are already merged and sorted by line
      */
     @NotNull List<FileContextItem> getItemsForFile(@NotNull VirtualFile file);
 
@@ -48,10 +60,26 @@ public interface FileAggregatorService {
     boolean removeFile(@NotNull VirtualFile file);
 
     /**
-     * Removes a specific snippet
+     * Removes the lines of a snippet, splitting any merged snippet that only partially overlaps them
      */
     boolean removeSnippet(@NotNull VirtualFile file, @NotNull LineRange lineRange);
 
+    /**
+     * Moves the snippets of {@code file} in every profile so they keep pointing at the same code after {@code edit}
+     * @return true if a snippet of the active profile moved
+     */
+    boolean applyLineEdit(@NotNull VirtualFile file, @NotNull LineEdit edit);
+
+    /**
+     * Updates every profile after changes on disk, with at most one change event.
+     * Deleted files are removed, together with the tracked files under deleted directories.
+     * @param relocated files and directories renamed or moved. The items of these files, and of the tracked files under
+     *                  these directories, keep their identity and are reported as relocated, since they may change
+     *                  their place in the sorted order
+     * @return the number of changes in the active profile
+     */
+    int applyFileSystemChanges(@NotNull Collection<VirtualFile> deleted, @NotNull Collection<VirtualFile> relocated);
+
     /**
      * Checks if a file is tracked
      */
@@ -65,13 +93,98 @@ public interface FileAggregatorService {
     int getSnippetCount();
 
     /**
-     * Clears all files and snippets
+     * Gets the size of the context in O(1), for action updates and status displays
+     */
+    @NotNull ContextStatistics getStatistics();
+
+    /**
+     * Clears all files and snippets of the active profile
      */
     void clear();
 
+    /**
+     * Gets the name of the profile whose items the other methods read and change
+     */
+    @NotNull String getActiveProfile();
+
+    /**
+     * Gets the names of all profiles, sorted
+     */
+    @NotNull List<String> getProfileNames();
+
+    /**
+     * Creates an empty profile
+     * @return false if a profile with that name already exists
+     */
+    boolean createProfile(@NotNull String name);
+
+    /**
+     * Creates a profile with the items of {@code source}. Both profiles share their items until either changes them.
+     * @return false if {@code source} does not exist or a profile with that name already exists
+     */
+    boolean copyProfile(@NotNull String source, @NotNull String name);
+
+    /**
+     * Makes {@code name} the active profile in O(1). Listeners receive a {@link FilesChangeEvent#reset()} event.
+     * @return false if the profile does not exist or is already active
+     */
+    boolean switchProfile(@NotNull String name);
+
+    /**
+     * Deletes a profile other than the active one
+     * @return false if the profile does not exist or is active
+     */
+    boolean deleteProfile(@NotNull String name);
+
+    /**
+     * Gets the version of the items, incremented by every change that notifies listeners
+     */
+    long getVersion();
+
+    /**
+     * Adds a listener notified synchronously of every change
+     */
     void addChangeListener(@NotNull FilesChangeListener listener);
+
+    /**
+     * Adds a listener notified as {@code delivery} specifies, UI listeners should use {@link FilesChangeListener.Delivery#EDT}
+     */
+    void addChangeListener(@NotNull FilesChangeListener listener, @NotNull FilesChangeListener.Delivery delivery);
     void removeChangeListener(@NotNull FilesChangeListener listener);
     void removeFiles(@NotNull List<FileContextItem> selectedItems);
 
+    /**
+     * Gets all items sorted, as an immutable list that is shared by callers until the next change
+     */
     List<FileContextItem> getSortedItems();
+
+    /**
+     * Gets all items sorted together with the version they reflect
+     */
+    @NotNull SortedSnapshot getSortedSnapshot();
+
+    /**
+     * Immutable sorted items. The items may already include changes of a concurrent mutation,
+     * in which case the snapshot is rebuilt on the next call.
+     */
+    record SortedSnapshot(long version, @NotNull List<FileContextItem> items) {
+    }
+
+    /**
+     * Size of the context at {@code version}
+     * @param fileCount number of tracked files, whole or with snippets
+     * @param wholeFileCount number of files added whole
+     * @param snippetCount number of snippets
+     * @param snippetLineCount number of lines covered by snippets
+     * @param wholeFileBytes size of the files added whole, as reported by the file system when they were added
+     */
+    record ContextStatistics(long version, int fileCount, int wholeFileCount, int snippetCount,
+                             long snippetLineCount, long wholeFileBytes) {
+
+        public static final ContextStatistics EMPTY = new ContextStatistics(0, 0, 0, 0, 0, 0);
+
+        public boolean isEmpty() {
+            return fileCount == 0;
+        }
+    }
 }
\ No newline at end of file
@@ -1,24 +1,70 @@
 package com.vittoriomattei.contextfetcher.services;
 
+import com.intellij.notification.NotificationGroupManager;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.components.StoragePathMacros;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineEdit;
 import com.vittoriomattei.contextfetcher.model.LineRange;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ToIntBiFunction;
 
 @Service(Service.Level.PROJECT)
-public final class FileAggregatorServiceImpl implements FileAggregatorService {
+@State(name = "ContextFetcherContext", storages = @Storage(StoragePathMacros.WORKSPACE_FILE))
+public final class FileAggregatorServiceImpl implements FileAggregatorService, PersistentStateComponent<PersistedContext.State> {
 
     private static final Logger LOG = Logger.getInstance(FileAggregatorServiceImpl.class);
 
-    private final Set<FileContextItem> items = ConcurrentHashMap.newKeySet();
-    private final CopyOnWriteArrayList<FilesChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, ContextProfile> profiles = new ConcurrentHashMap<>();
+    private volatile ContextProfile active;
+    // Mutations hold the read lock and profile changes the write lock, so a switch never interleaves with a mutation
+    private final ReentrantReadWriteLock profileLock = new ReentrantReadWriteLock();
+    private final AtomicLong version = new AtomicLong();
+    // Held while a version is assigned and its event queued, so queued listeners receive the versions in order
+    private final Object publishLock = new Object();
+    // Rebuilt lazily when a change bumped the version
+    private volatile SortedSnapshot sortedSnapshot = new SortedSnapshot(0, List.of());
+    private volatile ContextStatistics statistics = ContextStatistics.EMPTY;
+    // Long enough to merge the changes of a script or a multi-caret action, short enough to go unnoticed
+    private static final long NOTIFICATION_WINDOW_MILLIS = 50;
+
+    private final FilesChangeDispatcher dispatcher = new FilesChangeDispatcher(NOTIFICATION_WINDOW_MILLIS);
+
+    // Files are resolved in chunks, each in its own short read action
+    private static final int RESTORE_CHUNK_SIZE = 500;
+    private static final int MAX_REPORTED_FILES = 10;
+
+    private final @Nullable Project project;
+
+    public FileAggregatorServiceImpl() {
+        this(null);
+    }
+
+    public FileAggregatorServiceImpl(@Nullable Project project) {
+        this.project = project;
+        this.active = new ContextProfile(DEFAULT_PROFILE);
+        profiles.put(DEFAULT_PROFILE, active);
+    }
 
     @Override
     public boolean addFile(@NotNull VirtualFile file) {
@@ -29,52 +75,23 @@ public final class FileAggregatorServiceImpl implements FileAggregatorService {
             return false;
         }
 
-        // Check if file already exists in any form (whole file or snippets)
-        boolean fileExists = items.stream()
-                .anyMatch(item -> item.getVirtualFile().equals(file));
-
-        if (fileExists) {
-            return false; // File already tracked in some form
-        }
-
-        FileContextItem wholeFileItem = FileContextItem.wholeFile(file);
-        boolean added = items.add(wholeFileItem);
-
-        if (added) {
-            notifyListeners();
-        }
-
-        return added;
+        // A file already tracked in any form (whole file or snippets) is left untouched
+        return mutate(null, (profile, changes) -> putWholeFile(profile, file, changes) ? 1 : 0) > 0;
     }
 
     @Override
     public int addFiles(@NotNull Iterable<VirtualFile> files) {
         Objects.requireNonNull(files, "Files cannot be null");
 
-        int addedCount = 0;
-        boolean anyAdded = false;
-
-        for (VirtualFile file : files) {
-            if (file != null && file.isValid()) {
-                // Check if file already exists
-                boolean fileExists = items.stream()
-                        .anyMatch(item -> item.getVirtualFile().equals(file));
-                
-                if (!fileExists) {
-                    FileContextItem wholeFileItem = FileContextItem.wholeFile(file);
-                    if (items.add(wholeFileItem)) {
-                        addedCount++;
-                        anyAdded = true;
-                    }
+        return mutate(null, (profile, changes) -> {
+            int addedCount = 0;
+            for (VirtualFile file : files) {
+                if (file != null && file.isValid() && putWholeFile(profile, file, changes)) {
+                    addedCount++;
                 }
             }
-        }
-
-        if (anyAdded) {
-            notifyListeners();
-        }
-
-        return addedCount;
+            return addedCount;
+        });
     }
 
     @Override
@@ -92,50 +109,69 @@ public final class FileAggregatorServiceImpl implements FileAggregatorService {
             return false;
         }
 
-        // Check if whole file is already tracked
-        boolean wholeFileExists = items.stream()
-                .anyMatch(item -> item.getVirtualFile().equals(file) && !item.isSnippet());
+        // Cannot add a snippet when the whole file is already tracked. Overlapping or adjacent
+        // snippets are merged, and a range that is already fully covered is rejected
+        return mutate(null, (profile, changes) -> {
+            boolean[] added = {false};
+            profile.entries.compute(file, (f, entry) -> {
+                if (entry != null && !entry.canAddSnippet(lineRange)) {
+                    return entry;
+                }
+                FileEntry target = entry != null ? entry.forWrite() : FileEntry.snippets(f);
+                List<FileContextItem> itemsBefore = target.toItems();
+                FileEntry.Stats before = target.stats();
+                if (target.addSnippet(lineRange)) {
+                    profile.account(before, target.stats());
+                    changes.fileChanged(f, itemsBefore, target.toItems());
+                    added[0] = true;
+                }
+                return target;
+            });
+            return added[0] ? 1 : 0;
+        }) > 0;
+    }
 
-        if (wholeFileExists) {
-            return false; // Cannot add snippet when whole file is already tracked
-        }
+    @Override
+    public int batch(@NotNull Consumer<MutationBuilder> mutations) {
+        return batch(null, mutations);
+    }
 
-        // Check if this exact snippet already exists
-        FileContextItem newSnippet = FileContextItem.snippet(file, lineRange);
-        if (items.contains(newSnippet)) {
-            return false; // This exact snippet already exists
-        }
+    private int batch(@Nullable ContextProfile target, @NotNull Consumer<MutationBuilder> mutations) {
+        Objects.requireNonNull(mutations, "Mutations cannot be null");
+
+        BatchBuilder builder = new BatchBuilder();
+        mutations.accept(builder);
+
+        return mutate(target, (profile, changes) -> applyBatch(profile, builder, changes));
+    }
 
-        // File doesn't exist, add as snippet
-        FileContextItem snippetItem = FileContextItem.snippet(file, lineRange);
-        boolean added = items.add(snippetItem);
-        
-        if (added) {
-            notifyListeners();
+    private int applyBatch(ContextProfile profile, BatchBuilder builder, FilesChangeEvent.Builder changes) {
+        int applied = 0;
+        for (Map.Entry<VirtualFile, List<Mutation>> fileMutations : builder.mutationsByFile.entrySet()) {
+            applied += applyMutations(profile, fileMutations.getKey(), fileMutations.getValue(), changes);
         }
-        
-        return added;
+        return applied;
     }
 
     @Override
     public @NotNull List<FileContextItem> getAllItems() {
-        return new ArrayList<>(items);
+        ContextProfile profile = active;
+        List<FileContextItem> result = new ArrayList<>(profile.entries.size());
+        for (FileEntry entry : profile.entries.values()) {
+            entry.collectItems(result);
+        }
+        return result;
     }
 
     @Override
     public @NotNull List<FileContextItem> getItemsForFile(@NotNull VirtualFile file) {
-        return items.stream()
-                .filter(item -> item.getVirtualFile().equals(file))
-                .collect(Collectors.toList());
+        FileEntry entry = active.entries.get(file);
+        return entry != null ? entry.toItems() : new ArrayList<>();
     }
 
     @Override
     public boolean removeFile(@NotNull VirtualFile file) {
-        boolean removed = items.removeIf(item -> item.getVirtualFile().equals(file));
-        if (removed) {
-            notifyListeners();
-        }
-        return removed;
+        return mutate(null, (profile, changes) -> removeEntry(profile, file, changes) ? 1 : 0) > 0;
     }
 
     @Override
@@ -143,78 +179,672 @@ public final class FileAggregatorServiceImpl implements FileAggregatorService {
         Objects.requireNonNull(file, "File cannot be null");
         Objects.requireNonNull(lineRange, "LineRange cannot be null");
 
-        FileContextItem snippetToRemove = FileContextItem.snippet(file, lineRange);
-        boolean removed = items.remove(snippetToRemove);
+        return mutate(null, (profile, changes) -> removeSnippetInternal(profile, file, lineRange, changes) ? 1 : 0) > 0;
+    }
 
-        if (removed) {
-            notifyListeners();
-        }
+    @Override
+    public boolean applyLineEdit(@NotNull VirtualFile file, @NotNull LineEdit edit) {
+        Objects.requireNonNull(file, "File cannot be null");
+        Objects.requireNonNull(edit, "Edit cannot be null");
+
+        return mutate(null, (activeProfile, changes) -> {
+            int shifted = 0;
+            for (ContextProfile profile : profiles.values()) {
+                // Only the active profile's changes are reported
+                FilesChangeEvent.Builder profileChanges = profile == activeProfile ? changes : new FilesChangeEvent.Builder();
+                if (shiftSnippets(profile, file, edit, profileChanges) && profile == activeProfile) {
+                    shifted++;
+                }
+            }
+            return shifted;
+        }) > 0;
+    }
 
-        return removed;
+    @Override
+    public int applyFileSystemChanges(@NotNull Collection<VirtualFile> deleted, @NotNull Collection<VirtualFile> relocated) {
+        Objects.requireNonNull(deleted, "Deleted files cannot be null");
+        Objects.requireNonNull(relocated, "Relocated files cannot be null");
+
+        boolean directoryDeleted = deleted.stream().anyMatch(VirtualFile::isDirectory);
+        return mutate(null, (activeProfile, changes) -> {
+            int changed = 0;
+            for (ContextProfile profile : profiles.values()) {
+                // Only the active profile's changes are reported
+                FilesChangeEvent.Builder profileChanges = profile == activeProfile ? changes : new FilesChangeEvent.Builder();
+                int removed = 0;
+                for (VirtualFile file : deleted) {
+                    if (removeEntry(profile, file, profileChanges)) {
+                        removed++;
+                    }
+                }
+                // Files under a deleted directory are invalid by now, one pass finds them whatever the number of events
+                if (directoryDeleted) {
+                    for (VirtualFile file : profile.entries.keySet()) {
+                        if (!file.isValid() && removeEntry(profile, file, profileChanges)) {
+                            removed++;
+                        }
+                    }
+                }
+                if (profile == activeProfile) {
+                    changed += removed;
+                }
+            }
+            // Relocated items keep their identity, listeners only place them again. Files under a moved or
+            // renamed directory are found in one pass over the entries
+            Set<VirtualFile> relocatedFiles = new HashSet<>(relocated);
+            List<VirtualFile> relocatedDirectories = relocated.stream().filter(VirtualFile::isDirectory).toList();
+            for (Map.Entry<VirtualFile, FileEntry> entry : activeProfile.entries.entrySet()) {
+                VirtualFile file = entry.getKey();
+                if (relocatedFiles.contains(file)
+                        || relocatedDirectories.stream().anyMatch(directory -> VfsUtilCore.isAncestor(directory, file, true))) {
+                    changes.fileRelocated(entry.getValue().toItems());
+                    changed++;
+                }
+            }
+            return changed;
+        });
     }
 
     @Override
     public boolean containsFile(@NotNull VirtualFile file) {
-        return items.stream().anyMatch(item -> item.getVirtualFile().equals(file));
+        return active.entries.containsKey(file);
     }
 
     @Override
     public int getFileCount() {
-        return (int) items.stream()
-                .map(FileContextItem::getVirtualFile)
-                .distinct()
-                .count();
+        return active.entries.size();
     }
 
     @Override
     public int getSnippetCount() {
-        return (int) items.stream()
-                .filter(FileContextItem::isSnippet)
-                .count();
+        return active.snippetCount.get();
+    }
+
+    @Override
+    public @NotNull ContextStatistics getStatistics() {
+        ContextStatistics cached = statistics;
+        long currentVersion = version.get();
+        if (cached.version() == currentVersion) {
+            return cached;
+        }
+        ContextProfile profile = active;
+        cached = new ContextStatistics(currentVersion, profile.entries.size(), profile.wholeFileCount.get(),
+                profile.snippetCount.get(), profile.snippetLineCount.get(), profile.wholeFileBytes.get());
+        statistics = cached;
+        return cached;
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
     }
 
     @Override
     public void clear() {
-        if (!items.isEmpty()) {
-            items.clear();
-            notifyListeners();
+        mutate(null, (profile, changes) -> {
+            synchronized (profile.restoreLock) {
+                profile.pendingRestore = Map.of();
+            }
+            int removed = 0;
+            for (VirtualFile file : profile.entries.keySet()) {
+                if (removeEntry(profile, file, changes)) {
+                    removed++;
+                }
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public @NotNull String getActiveProfile() {
+        return active.getName();
+    }
+
+    @Override
+    public @NotNull List<String> getProfileNames() {
+        List<String> names = new ArrayList<>(profiles.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    @Override
+    public boolean createProfile(@NotNull String name) {
+        Objects.requireNonNull(name, "Profile name cannot be null");
+        if (name.isBlank()) {
+            LOG.warn("Attempted to create a profile with a blank name");
+            return false;
+        }
+        return profiles.putIfAbsent(name, new ContextProfile(name)) == null;
+    }
+
+    /**
+     * The entry of {@code file} in the named profile, so tests can tell shared entries from copies
+     */
+    @Nullable FileEntry entryOf(@NotNull String profileName, @NotNull VirtualFile file) {
+        ContextProfile profile = profiles.get(profileName);
+        return profile != null ? profile.entries.get(file) : null;
+    }
+
+    @Override
+    public boolean copyProfile(@NotNull String source, @NotNull String name) {
+        Objects.requireNonNull(source, "Source profile cannot be null");
+        Objects.requireNonNull(name, "Profile name cannot be null");
+        if (name.isBlank()) {
+            LOG.warn("Attempted to create a profile with a blank name");
+            return false;
+        }
+
+        profileLock.writeLock().lock();
+        try {
+            ContextProfile sourceProfile = profiles.get(source);
+            if (sourceProfile == null) {
+                LOG.warn("Unknown context profile: " + source);
+                return false;
+            }
+            if (profiles.containsKey(name)) {
+                return false;
+            }
+            profiles.put(name, sourceProfile.copy(name));
+            return true;
+        } finally {
+            profileLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean switchProfile(@NotNull String name) {
+        Objects.requireNonNull(name, "Profile name cannot be null");
+
+        FilesChangeEvent event;
+        profileLock.writeLock().lock();
+        try {
+            ContextProfile profile = profiles.get(name);
+            if (profile == null) {
+                LOG.warn("Unknown context profile: " + name);
+                return false;
+            }
+            if (profile == active) {
+                return false;
+            }
+            active = profile;
+            event = publish(FilesChangeEvent::reset);
+        } finally {
+            profileLock.writeLock().unlock();
+        }
+        dispatcher.deliverImmediately(event);
+        return true;
+    }
+
+    @Override
+    public boolean deleteProfile(@NotNull String name) {
+        Objects.requireNonNull(name, "Profile name cannot be null");
+
+        profileLock.writeLock().lock();
+        try {
+            ContextProfile profile = profiles.get(name);
+            if (profile == null || profile == active) {
+                return false;
+            }
+            profiles.remove(name);
+            // Stops its restore, if still running
+            profile.pendingRestore = Map.of();
+            return true;
+        } finally {
+            profileLock.writeLock().unlock();
         }
     }
 
     @Override
     public void addChangeListener(@NotNull FilesChangeListener listener) {
-        listeners.add(listener);
+        addChangeListener(listener, FilesChangeListener.Delivery.IMMEDIATE);
+    }
+
+    @Override
+    public void addChangeListener(@NotNull FilesChangeListener listener, @NotNull FilesChangeListener.Delivery delivery) {
+        dispatcher.addListener(listener, delivery);
     }
 
     @Override
     public void removeChangeListener(@NotNull FilesChangeListener listener) {
-        listeners.remove(listener);
+        dispatcher.removeListener(listener);
     }
 
-    private void notifyListeners() {
-        for (FilesChangeListener listener : listeners) {
-            try {
-                listener.onFilesChanged();
-            } catch (Exception e) {
-                LOG.error("Error notifying file change listener", e);
+    @Override
+    public @NotNull PersistedContext.State getState() {
+        PersistedContext.State state = new PersistedContext.State();
+        ContextProfile activeProfile = active;
+        state.activeProfile = activeProfile.getName();
+        state.files = saveFiles(activeProfile);
+        for (String name : getProfileNames()) {
+            ContextProfile profile = profiles.get(name);
+            if (profile != null && profile != activeProfile) {
+                PersistedContext.ProfileState profileState = new PersistedContext.ProfileState();
+                profileState.name = name;
+                profileState.files = saveFiles(profile);
+                state.profiles.add(profileState);
             }
         }
+        return state;
     }
 
-    public void removeFiles(@NotNull List<FileContextItem> selectedItems) {
-        boolean anyRemoved = false;
-        for (FileContextItem item : selectedItems) {
-            if (items.remove(item)) {
-                anyRemoved = true;
+    private static Map<String, String> saveFiles(ContextProfile profile) {
+        Map<String, String> files = new LinkedHashMap<>();
+        // A restored chunk moves from the pending files to the entries at once, never between the two reads
+        synchronized (profile.restoreLock) {
+            for (FileEntry entry : profile.entries.values()) {
+                files.put(entry.getFile().getUrl(), entry.isWholeFile() ? "" : PersistedContext.pack(entry.snippetRanges()));
+            }
+            profile.pendingRestore.forEach(files::putIfAbsent);
+        }
+        return files;
+    }
+
+    @Override
+    public void loadState(@NotNull PersistedContext.State state) {
+        // Resolving thousands of files must not delay opening the project
+        loadState(state, AppExecutorUtil.getAppExecutorService());
+    }
+
+    void loadState(@NotNull PersistedContext.State state, @NotNull Executor executor) {
+        String activeName = state.activeProfile != null && !state.activeProfile.isBlank() ? state.activeProfile : DEFAULT_PROFILE;
+        // The active profile is restored first
+        List<ContextProfile> loaded = new ArrayList<>();
+        loaded.add(loadProfile(activeName, state.files));
+        for (PersistedContext.ProfileState profileState : state.profiles) {
+            if (profileState.name != null && !profileState.name.isBlank() && !profileState.name.equals(activeName)) {
+                loaded.add(loadProfile(profileState.name, profileState.files));
+            }
+        }
+
+        FilesChangeEvent event;
+        profileLock.writeLock().lock();
+        try {
+            for (ContextProfile profile : profiles.values()) {
+                profile.pendingRestore = Map.of();
             }
+            profiles.clear();
+            for (ContextProfile profile : loaded) {
+                profiles.put(profile.getName(), profile);
+            }
+            active = loaded.get(0);
+            event = publish(FilesChangeEvent::reset);
+        } finally {
+            profileLock.writeLock().unlock();
+        }
+        dispatcher.deliverImmediately(event);
+
+        executor.execute(() -> {
+            List<String> unresolved = new ArrayList<>();
+            for (ContextProfile profile : loaded) {
+                restore(profile, unresolved);
+            }
+            reportUnresolved(unresolved);
+        });
+    }
+
+    private static ContextProfile loadProfile(String name, @Nullable Map<String, String> files) {
+        ContextProfile profile = new ContextProfile(name);
+        if (files != null) {
+            profile.pendingRestore = Collections.unmodifiableMap(new LinkedHashMap<>(files));
         }
-        if (anyRemoved) {
-            notifyListeners();
+        return profile;
+    }
+
+    /**
+     * Adds the loaded files of {@code profile} back in chunks, one notification per chunk if the profile is active.
+     * Stops if the profile is cleared or deleted meanwhile. The files that could not be found are added to {@code unresolved}.
+     */
+    private void restore(@NotNull ContextProfile profile, @NotNull List<String> unresolved) {
+        Map<String, String> restoring = profile.pendingRestore;
+        List<Map.Entry<String, String>> pending = new ArrayList<>(restoring.entrySet());
+
+        for (int from = 0; from < pending.size(); from += RESTORE_CHUNK_SIZE) {
+            if (profile.pendingRestore != restoring) {
+                return;
+            }
+            int to = Math.min(from + RESTORE_CHUNK_SIZE, pending.size());
+            List<Map.Entry<String, String>> chunk = pending.subList(from, to);
+            Map<VirtualFile, List<LineRange>> resolved = ReadAction.compute(() -> resolve(chunk, unresolved));
+            BatchBuilder builder = new BatchBuilder();
+            resolved.forEach((file, ranges) -> {
+                if (ranges.isEmpty()) {
+                    builder.addFile(file);
+                } else {
+                    ranges.forEach(range -> builder.addSnippet(file, range));
+                }
+            });
+
+            Map<String, String> remaining = new LinkedHashMap<>();
+            for (Map.Entry<String, String> saved : pending.subList(to, pending.size())) {
+                remaining.put(saved.getKey(), saved.getValue());
+            }
+            Map<String, String> expected = restoring;
+            Map<String, String> next = remaining.isEmpty() ? Map.of() : Collections.unmodifiableMap(remaining);
+            boolean[] current = {false};
+            mutate(profile, (target, changes) -> {
+                // Checked and applied atomically, so a clear either stops the chunk or removes all of it.
+                // The chunk leaves the pending files in the same step, so a save never lists it twice or not at all
+                synchronized (target.restoreLock) {
+                    if (target.pendingRestore != expected) {
+                        return 0;
+                    }
+                    current[0] = true;
+                    target.pendingRestore = next;
+                    return applyBatch(target, builder, changes);
+                }
+            });
+            if (!current[0]) {
+                return;
+            }
+            restoring = next;
         }
     }
 
+    private static Map<VirtualFile, List<LineRange>> resolve(List<Map.Entry<String, String>> chunk, List<String> unresolved) {
+        VirtualFileManager fileManager = VirtualFileManager.getInstance();
+        Map<VirtualFile, List<LineRange>> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, String> saved : chunk) {
+            VirtualFile file = fileManager.findFileByUrl(saved.getKey());
+            List<LineRange> ranges = PersistedContext.unpack(saved.getValue());
+            if (file == null || !file.isValid() || file.isDirectory()) {
+                unresolved.add(saved.getKey());
+            } else if (ranges == null) {
+                LOG.warn("Ignoring malformed saved snippets of " + saved.getKey() + ": " + saved.getValue());
+                unresolved.add(saved.getKey());
+            } else {
+                resolved.put(file, ranges);
+            }
+        }
+        return resolved;
+    }
+
+    private void reportUnresolved(@NotNull List<String> unresolved) {
+        if (unresolved.isEmpty()) {
+            return;
+        }
+        LOG.warn("Could not restore " + unresolved.size() + " files of the saved context: " + unresolved);
+        if (project == null || project.isDisposed()) {
+            return;
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (String url : unresolved.subList(0, Math.min(unresolved.size(), MAX_REPORTED_FILES))) {
+            content.append("<br>").append(VfsUtilCore.urlToPath(url));
+        }
+        if (unresolved.size() > MAX_REPORTED_FILES) {
+            content.append("<br>and ").append(unresolved.size() - MAX_REPORTED_FILES).append(" more");
+        }
+        NotificationGroupManager.getInstance()
+                .getNotificationGroup("ContextFetcher")
+                .createNotification("Some context files were not found",
+                        unresolved.size() + " files of the saved context no longer exist and were removed:" + content,
+                        NotificationType.WARNING)
+                .notify(project);
+    }
+
+    /**
+     * Runs {@code mutation} on {@code target}, or on the active profile if it is null, and notifies listeners of its
+     * changes if they happened in the active profile. The profile cannot be switched during the mutation, so its event
+     * always has a lower version than the reset event of a later switch.
+     * The event is queued for the EDT and background listeners before the lock is released, the immediate listeners
+     * are called after it.
+     * @return the number of changes reported by {@code mutation}
+     */
+    private int mutate(@Nullable ContextProfile target,
+                       @NotNull ToIntBiFunction<ContextProfile, FilesChangeEvent.Builder> mutation) {
+        FilesChangeEvent.Builder changes = new FilesChangeEvent.Builder();
+        FilesChangeEvent event = null;
+        int changed;
+        profileLock.readLock().lock();
+        try {
+            ContextProfile profile = target != null ? target : active;
+            changed = mutation.applyAsInt(profile, changes);
+            if (changed > 0 && profile == active) {
+                event = publish(changes::build);
+            }
+        } finally {
+            profileLock.readLock().unlock();
+        }
+        if (event != null) {
+            dispatcher.deliverImmediately(event);
+        }
+        return changed;
+    }
+
+    /**
+     * Creates the event of the next version and queues it, atomically. Mutations run concurrently under the read lock,
+     * so without this a delta could be queued after the delta of the next version and be dropped as outdated.
+     */
+    private FilesChangeEvent publish(@NotNull LongFunction<FilesChangeEvent> eventOfVersion) {
+        synchronized (publishLock) {
+            FilesChangeEvent event = eventOfVersion.apply(version.incrementAndGet());
+            dispatcher.enqueue(event);
+            return event;
+        }
+    }
+
+    public void removeFiles(@NotNull List<FileContextItem> selectedItems) {
+        batch(builder -> selectedItems.forEach(builder::remove));
+    }
+
     @Override
     public List<FileContextItem> getSortedItems() {
-        return items.stream().sorted().collect(Collectors.toList());
+        return getSortedSnapshot().items();
+    }
+
+    @Override
+    public @NotNull SortedSnapshot getSortedSnapshot() {
+        SortedSnapshot snapshot = sortedSnapshot;
+        long currentVersion = version.get();
+        if (snapshot.version() == currentVersion) {
+            return snapshot;
+        }
+        // The version is read before the items, so a concurrent change can only make the snapshot look older than it is
+        List<FileContextItem> items = getAllItems();
+        Collections.sort(items);
+        snapshot = new SortedSnapshot(currentVersion, Collections.unmodifiableList(items));
+        sortedSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Applies all mutations of one file inside a single compute, so no other thread sees an intermediate state
+     */
+    private int applyMutations(@NotNull ContextProfile profile, @NotNull VirtualFile file,
+                               @NotNull List<Mutation> mutations, @NotNull FilesChangeEvent.Builder changes) {
+        int[] applied = {0};
+        profile.entries.compute(file, (f, entry) -> {
+            List<FileContextItem> itemsBefore = entry != null ? entry.toItems() : List.of();
+            FileEntry.Stats statsBefore = entry != null ? entry.stats() : FileEntry.Stats.EMPTY;
+
+            // A shared entry is copied by the first mutation that changes it
+            FileEntry target = entry;
+            for (Mutation mutation : mutations) {
+                switch (mutation.kind()) {
+                    case ADD_FILE -> {
+                        if (target == null) {
+                            target = FileEntry.wholeFile(f);
+                            applied[0]++;
+                        }
+                    }
+                    case ADD_SNIPPET -> {
+                        if (target == null) {
+                            target = FileEntry.snippets(f);
+                        } else if (!target.canAddSnippet(mutation.lineRange())) {
+                            continue;
+                        } else if (target == entry) {
+                            target = entry.forWrite();
+                        }
+                        target.addSnippet(mutation.lineRange());
+                        applied[0]++;
+                    }
+                    case REMOVE_FILE -> {
+                        if (target != null) {
+                            target = null;
+                            applied[0]++;
+                        }
+                    }
+                    case REMOVE_WHOLE_FILE -> {
+                        if (target != null && target.isWholeFile()) {
+                            target = null;
+                            applied[0]++;
+                        }
+                    }
+                    case REMOVE_SNIPPET -> {
+                        if (target != null && target.canRemoveSnippet(mutation.lineRange())) {
+                            if (target == entry) {
+                                target = entry.forWrite();
+                            }
+                            target.removeSnippet(mutation.lineRange());
+                            applied[0]++;
+                            if (target.isEmpty()) {
+                                target = null;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (applied[0] == 0) {
+                return entry;
+            }
+            List<FileContextItem> itemsAfter = target != null ? target.toItems() : List.of();
+            profile.account(statsBefore, target != null ? target.stats() : FileEntry.Stats.EMPTY);
+            changes.fileChanged(f, itemsBefore, itemsAfter);
+            return target;
+        });
+        return applied[0];
+    }
+
+    private static boolean putWholeFile(@NotNull ContextProfile profile, @NotNull VirtualFile file,
+                                        @NotNull FilesChangeEvent.Builder changes) {
+        FileEntry entry = FileEntry.wholeFile(file);
+        if (profile.entries.putIfAbsent(file, entry) != null) {
+            return false;
+        }
+        profile.account(FileEntry.Stats.EMPTY, entry.stats());
+        changes.fileChanged(file, List.of(), entry.toItems());
+        return true;
+    }
+
+    private static boolean removeEntry(@NotNull ContextProfile profile, @NotNull VirtualFile file,
+                                       @NotNull FilesChangeEvent.Builder changes) {
+        FileEntry removed = profile.entries.remove(file);
+        if (removed == null) {
+            return false;
+        }
+        profile.account(removed.stats(), FileEntry.Stats.EMPTY);
+        changes.fileChanged(file, removed.toItems(), List.of());
+        return true;
+    }
+
+    private static boolean removeSnippetInternal(@NotNull ContextProfile profile, @NotNull VirtualFile file,
+                                                 @NotNull LineRange lineRange, @NotNull FilesChangeEvent.Builder changes) {
+        boolean[] removed = {false};
+        // Removing part of a merged snippet splits it. The entry is dropped together with
+        // its last snippet, so an empty file is never reported as tracked
+        profile.entries.computeIfPresent(file, (f, entry) -> {
+            List<FileContextItem> itemsBefore = entry.toItems();
+            FileEntry.Stats before = entry.stats();
+            FileEntry target = entry.forWrite();
+            if (target.removeSnippet(lineRange)) {
+                profile.account(before, target.stats());
+                changes.fileChanged(f, itemsBefore, target.toItems());
+                removed[0] = true;
+                return target.isEmpty() ? null : target;
+            }
+            return entry;
+        });
+        return removed[0];
+    }
+
+    private static boolean shiftSnippets(@NotNull ContextProfile profile, @NotNull VirtualFile file,
+                                         @NotNull LineEdit edit, @NotNull FilesChangeEvent.Builder changes) {
+        boolean[] shifted = {false};
+        profile.entries.computeIfPresent(file, (f, entry) -> {
+            if (entry.isWholeFile()) {
+                return entry;
+            }
+            List<FileContextItem> itemsBefore = entry.toItems();
+            FileEntry.Stats before = entry.stats();
+            FileEntry target = entry.forWrite();
+            if (!target.applyEdit(edit)) {
+                return entry;
+            }
+            profile.account(before, target.stats());
+            changes.fileChanged(f, itemsBefore, target.toItems());
+            shifted[0] = true;
+            return target;
+        });
+        return shifted[0];
+    }
+
+    private enum MutationKind {
+        ADD_FILE,
+        ADD_SNIPPET,
+        REMOVE_FILE,
+        REMOVE_WHOLE_FILE,
+        REMOVE_SNIPPET
+    }
+
+    private record Mutation(MutationKind kind, LineRange lineRange) {
+    }
+
+    /**
+     * Validates mutations as they are recorded and groups them by file, keeping their order
+     */
+    private static final class BatchBuilder implements MutationBuilder {
+        private final Map<VirtualFile, List<Mutation>> mutationsByFile = new LinkedHashMap<>();
+
+        @Override
+        public @NotNull MutationBuilder addFile(@NotNull VirtualFile file) {
+            Objects.requireNonNull(file, "File cannot be null");
+            if (!file.isValid()) {
+                LOG.warn("Attempted to add invalid file: " + file.getPath());
+                return this;
+            }
+            return record(file, new Mutation(MutationKind.ADD_FILE, null));
+        }
+
+        @Override
+        public @NotNull MutationBuilder addSnippet(@NotNull VirtualFile file, @NotNull LineRange lineRange) {
+            Objects.requireNonNull(file, "File cannot be null");
+            Objects.requireNonNull(lineRange, "LineRange cannot be null");
+            if (!file.isValid()) {
+                LOG.warn("Attempted to add snippet from invalid file: " + file.getPath());
+                return this;
+            }
+            if (lineRange.startLine() < 0 || lineRange.endLine() < lineRange.startLine()) {
+                LOG.warn("Invalid line range: " + lineRange);
+                return this;
+            }
+            return record(file, new Mutation(MutationKind.ADD_SNIPPET, lineRange));
+        }
+
+        @Override
+        public @NotNull MutationBuilder removeFile(@NotNull VirtualFile file) {
+            Objects.requireNonNull(file, "File cannot be null");
+            return record(file, new Mutation(MutationKind.REMOVE_FILE, null));
+        }
+
+        @Override
+        public @NotNull MutationBuilder removeSnippet(@NotNull VirtualFile file, @NotNull LineRange lineRange) {
+            Objects.requireNonNull(file, "File cannot be null");
+            Objects.requireNonNull(lineRange, "LineRange cannot be null");
+            return record(file, new Mutation(MutationKind.REMOVE_SNIPPET, lineRange));
+        }
+
+        @Override
+        public @NotNull MutationBuilder remove(@NotNull FileContextItem item) {
+            Objects.requireNonNull(item, "Item cannot be null");
+            return item.isSnippet()
+                    ? removeSnippet(item.getVirtualFile(), item.getLineRange())
+                    : record(item.getVirtualFile(), new Mutation(MutationKind.REMOVE_WHOLE_FILE, null));
+        }
+
+        private MutationBuilder record(VirtualFile file, Mutation mutation) {
+            mutationsByFile.computeIfAbsent(file, f -> new ArrayList<>()).add(mutation);
+            return this;
+        }
     }
-}
\ No newline at end of file
+}
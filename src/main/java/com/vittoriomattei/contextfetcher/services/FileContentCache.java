@@ -0,0 +1,107 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of normalized file contents used by context generation.
+ * Entries are keyed by file and only reused while the file's modification stamp is unchanged.
+ * The cache is bounded by the total size of the cached text, and entries are dropped eagerly
+ * by {@link com.vittoriomattei.contextfetcher.listeners.ContentCacheInvalidationListener}.
+ */
+public class FileContentCache {
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final LinkedHashMap<VirtualFile, CachedContent> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FileContentCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public FileContentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static FileContentCache getInstance() {
+        return ApplicationManager.getApplication().getService(FileContentCache.class);
+    }
+
+    /**
+     * Gets the cached content of {@code file}, calling {@code loader} only if the file is not cached
+     * or changed since it was cached. Failed loads are not cached.
+     */
+    public @NotNull CharSequence getOrLoad(@NotNull VirtualFile file,
+                                           @NotNull ThrowableComputable<? extends CharSequence, IOException> loader) throws IOException {
+        long stamp = file.getModificationStamp();
+        synchronized (this) {
+            CachedContent cached = entries.get(file);
+            if (cached != null && cached.stamp() == stamp) {
+                hits.incrementAndGet();
+                return cached.content();
+            }
+        }
+
+        misses.incrementAndGet();
+        CharSequence content = loader.compute();
+        put(file, new CachedContent(stamp, content));
+        return content;
+    }
+
+    public synchronized void invalidate(@NotNull VirtualFile file) {
+        CachedContent removed = entries.remove(file);
+        if (removed != null) {
+            totalBytes -= removed.bytes();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized @NotNull Statistics getStatistics() {
+        return new Statistics(hits.get(), misses.get(), entries.size(), totalBytes);
+    }
+
+    private synchronized void put(VirtualFile file, CachedContent content) {
+        if (content.bytes() > maxBytes) {
+            invalidate(file);
+            return;
+        }
+        CachedContent previous = entries.put(file, content);
+        if (previous != null) {
+            totalBytes -= previous.bytes();
+        }
+        totalBytes += content.bytes();
+
+        // Evict least recently used entries until the cache fits again
+        Iterator<Map.Entry<VirtualFile, CachedContent>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().getValue().bytes();
+            iterator.remove();
+        }
+    }
+
+    private record CachedContent(long stamp, CharSequence content) {
+        long bytes() {
+            return (long) content.length() * Character.BYTES;
+        }
+    }
+
+    public record Statistics(long hits, long misses, int entries, long bytes) {
+    }
+}
@@ -0,0 +1,42 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Provides the text of a file for context generation, with {@code \n} line separators.
+ * A loaded document is preferred: its immutable text is already normalized, needs no copy
+ * and includes unsaved editor changes. Other files are decoded once from disk and cached.
+ * Must be called inside a read action.
+ */
+public class FileContentSource {
+
+    private final FileContentCache contentCache;
+
+    public FileContentSource(@NotNull FileContentCache contentCache) {
+        this.contentCache = contentCache;
+    }
+
+    public @NotNull CharSequence getContent(@NotNull VirtualFile file) throws IOException {
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        if (document != null) {
+            return document.getImmutableCharSequence();
+        }
+        // Detects the charset and converts line separators in the same decoding pass
+        return contentCache.getOrLoad(file, () -> LoadTextUtil.loadText(file));
+    }
+
+    /**
+     * Stamp of the text {@link #getContent} would return, available without loading the text.
+     * Changes whenever the document or, if no document is loaded, the file changes.
+     */
+    public long getContentStamp(@NotNull VirtualFile file) {
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        return document != null ? document.getModificationStamp() : file.getModificationStamp();
+    }
+}
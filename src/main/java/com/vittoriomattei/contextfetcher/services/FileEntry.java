@@ -0,0 +1,140 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineEdit;
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import com.vittoriomattei.contextfetcher.model.LineRangeSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the aggregator tracks for a single file: either a whole-file marker
+ * or the file's snippets, kept as normalized (merged, sorted) line ranges.
+ * Mutations happen inside {@code ConcurrentHashMap.compute} on the owning map,
+ * reads from other threads go through the synchronized accessors.
+ * An entry shared by several profiles is never changed, the profile changing it works on {@link #forWrite()}.
+ */
+final class FileEntry {
+
+    private final VirtualFile file;
+    private final FileContextItem wholeFileItem;
+    private final LineRangeSet snippets;
+    // Size when the file was added, so removing the entry subtracts exactly what adding it counted
+    private final long wholeFileBytes;
+    private volatile boolean shared;
+
+    private FileEntry(VirtualFile file, boolean wholeFile) {
+        this.file = file;
+        this.wholeFileItem = wholeFile ? FileContextItem.wholeFile(file) : null;
+        this.snippets = wholeFile ? null : new LineRangeSet();
+        this.wholeFileBytes = wholeFile ? file.getLength() : 0;
+    }
+
+    private FileEntry(FileEntry source) {
+        this.file = source.file;
+        this.wholeFileItem = source.wholeFileItem;
+        this.snippets = source.snippets != null ? new LineRangeSet(source.snippets) : null;
+        this.wholeFileBytes = source.wholeFileBytes;
+    }
+
+    static FileEntry wholeFile(@NotNull VirtualFile file) {
+        return new FileEntry(file, true);
+    }
+
+    static FileEntry snippets(@NotNull VirtualFile file) {
+        return new FileEntry(file, false);
+    }
+
+    VirtualFile getFile() {
+        return file;
+    }
+
+    boolean isWholeFile() {
+        return wholeFileItem != null;
+    }
+
+    /**
+     * Marks the entry as referenced by more than one profile. It stays shared, so every profile copies it before changing it.
+     */
+    void share() {
+        shared = true;
+    }
+
+    /**
+     * Gets an entry that can be changed: this entry, or a private copy of it if it is shared.
+     * Whole-file entries never change, so they are never copied.
+     */
+    synchronized @NotNull FileEntry forWrite() {
+        return shared && !isWholeFile() ? new FileEntry(this) : this;
+    }
+
+    /**
+     * Checks whether {@link #addSnippet} would change the entry, so a shared entry is only copied when it does
+     */
+    synchronized boolean canAddSnippet(@NotNull LineRange lineRange) {
+        return !isWholeFile() && !snippets.covers(lineRange);
+    }
+
+    /**
+     * Checks whether {@link #removeSnippet} would change the entry
+     */
+    synchronized boolean canRemoveSnippet(@NotNull LineRange lineRange) {
+        return !isWholeFile() && snippets.intersects(lineRange);
+    }
+
+    synchronized boolean addSnippet(@NotNull LineRange lineRange) {
+        return !isWholeFile() && snippets.add(lineRange);
+    }
+
+    synchronized boolean removeSnippet(@NotNull LineRange lineRange) {
+        return !isWholeFile() && snippets.remove(lineRange);
+    }
+
+    synchronized boolean applyEdit(@NotNull LineEdit edit) {
+        return !isWholeFile() && snippets.applyEdit(edit);
+    }
+
+    synchronized boolean isEmpty() {
+        return !isWholeFile() && snippets.isEmpty();
+    }
+
+    synchronized int snippetCount() {
+        return isWholeFile() ? 0 : snippets.size();
+    }
+
+    synchronized @NotNull List<LineRange> snippetRanges() {
+        return isWholeFile() ? List.of() : snippets.toList();
+    }
+
+    synchronized @NotNull Stats stats() {
+        return isWholeFile()
+                ? new Stats(1, 0, 0, wholeFileBytes)
+                : new Stats(0, snippets.size(), snippets.lineCount(), 0);
+    }
+
+    @NotNull List<FileContextItem> toItems() {
+        List<FileContextItem> result = new ArrayList<>();
+        collectItems(result);
+        return result;
+    }
+
+    synchronized void collectItems(@NotNull List<FileContextItem> target) {
+        if (isWholeFile()) {
+            target.add(wholeFileItem);
+            return;
+        }
+        for (LineRange range : snippets.toList()) {
+            target.add(FileContextItem.snippet(file, range));
+        }
+    }
+
+    /**
+     * What the entry adds to the aggregator's running totals
+     */
+    record Stats(int wholeFiles, int snippets, long snippetLines, long bytes) {
+        static final Stats EMPTY = new Stats(0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,123 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers change events to the aggregator's listeners.
+ * {@link FilesChangeListener.Delivery#IMMEDIATE} listeners are called on the mutating thread for every event.
+ * The other listeners receive the events of a short window merged into one event,
+ * on the EDT or on a pooled thread, one event at a time and in order.
+ * Flushes of all listeners run on one sequential executor owned by the dispatcher, so registering a listener
+ * creates no executor and removing one leaves nothing to shut down.
+ * Queued listeners receive the events in the order they were passed to {@link #enqueue}, so the caller must
+ * assign versions and enqueue atomically.
+ */
+final class FilesChangeDispatcher {
+
+    private static final Logger LOG = Logger.getInstance(FilesChangeDispatcher.class);
+
+    private final long windowMillis;
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    // Flushes never overlap, so the merged events of each listener are delivered in order
+    private final ExecutorService flusher =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("ContextFetcher Change Dispatcher", 1);
+
+    FilesChangeDispatcher(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    void addListener(@NotNull FilesChangeListener listener, @NotNull FilesChangeListener.Delivery delivery) {
+        registrations.add(new Registration(listener, delivery));
+    }
+
+    void removeListener(@NotNull FilesChangeListener listener) {
+        registrations.removeIf(registration -> registration.listener.equals(listener));
+    }
+
+    /**
+     * Queues {@code event} for the EDT and background listeners. Cheap, so it can be called under the caller's locks.
+     */
+    void enqueue(@NotNull FilesChangeEvent event) {
+        for (Registration registration : registrations) {
+            if (registration.delivery != FilesChangeListener.Delivery.IMMEDIATE) {
+                registration.enqueue(event);
+            }
+        }
+    }
+
+    /**
+     * Calls the {@link FilesChangeListener.Delivery#IMMEDIATE} listeners with {@code event} on the current thread.
+     */
+    void deliverImmediately(@NotNull FilesChangeEvent event) {
+        for (Registration registration : registrations) {
+            if (registration.delivery == FilesChangeListener.Delivery.IMMEDIATE) {
+                registration.deliver(event);
+            }
+        }
+    }
+
+    private final class Registration {
+        private final FilesChangeListener listener;
+        private final FilesChangeListener.Delivery delivery;
+        private final List<FilesChangeEvent> pending = new ArrayList<>();
+
+        private Registration(FilesChangeListener listener, FilesChangeListener.Delivery delivery) {
+            this.listener = listener;
+            this.delivery = delivery;
+        }
+
+        private void enqueue(FilesChangeEvent event) {
+            boolean firstInWindow;
+            synchronized (pending) {
+                firstInWindow = pending.isEmpty();
+                pending.add(event);
+            }
+            // The first event of a window schedules the flush, the following ones are merged into it
+            if (firstInWindow) {
+                AppExecutorUtil.getAppScheduledExecutorService()
+                        .schedule(() -> flusher.execute(this::flush), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void flush() {
+            List<FilesChangeEvent> events;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                events = new ArrayList<>(pending);
+                pending.clear();
+            }
+            FilesChangeEvent merged = FilesChangeEvent.merge(events);
+            if (merged.isEmpty() || !registrations.contains(this)) {
+                return;
+            }
+            if (delivery == FilesChangeListener.Delivery.EDT) {
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    if (registrations.contains(this)) {
+                        deliver(merged);
+                    }
+                });
+            } else {
+                deliver(merged);
+            }
+        }
+
+        private void deliver(FilesChangeEvent event) {
+            try {
+                listener.onFilesChanged(event);
+            } catch (Exception e) {
+                LOG.error("Error notifying file change listener", e);
+            }
+        }
+    }
+}
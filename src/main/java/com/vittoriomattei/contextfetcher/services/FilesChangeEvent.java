@@ -0,0 +1,162 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One change of the aggregated items, relative to the state before it.
+ * A snippet that was merged with or split into exactly one other snippet is reported as replaced,
+ * every other change as added and removed items.
+ * @param version the aggregator version after the change, increasing with every event
+ * @param relocated items whose file was renamed or moved, directly or with a parent directory. They are equal to
+ *                  the items before the change, only their path and name changed, so they may sort elsewhere.
+ * @param reset whether all items were replaced at once, e.g. by switching profiles. Such an event lists no items,
+ *              listeners read the items again instead of applying a delta.
+ */
+public record FilesChangeEvent(long version,
+                               @NotNull List<FileContextItem> added,
+                               @NotNull List<FileContextItem> removed,
+                               @NotNull List<Replacement> replaced,
+                               @NotNull List<FileContextItem> relocated,
+                               boolean reset) {
+
+    public record Replacement(@NotNull FileContextItem previous, @NotNull FileContextItem current) {
+    }
+
+    public FilesChangeEvent(long version,
+                            @NotNull List<FileContextItem> added,
+                            @NotNull List<FileContextItem> removed,
+                            @NotNull List<Replacement> replaced) {
+        this(version, added, removed, replaced, List.of(), false);
+    }
+
+    static @NotNull FilesChangeEvent reset(long version) {
+        return new FilesChangeEvent(version, List.of(), List.of(), List.of(), List.of(), true);
+    }
+
+    public boolean isEmpty() {
+        return !reset && added.isEmpty() && removed.isEmpty() && replaced.isEmpty() && relocated.isEmpty();
+    }
+
+    /**
+     * Merges consecutive events into one event with their net effect and the version of the last event.
+     * Items added and removed again cancel out, and chains of replacements collapse into one replacement.
+     * An item is only reported as relocated if it exists before and after the events.
+     */
+    static @NotNull FilesChangeEvent merge(@NotNull List<FilesChangeEvent> events) {
+        if (events.size() == 1) {
+            return events.get(0);
+        }
+        // Listeners read all items again after a reset, which covers the other events as well
+        if (events.stream().anyMatch(FilesChangeEvent::reset)) {
+            return reset(events.stream().mapToLong(FilesChangeEvent::version).max().orElse(0));
+        }
+        // +1 for an item that exists only after the events, -1 for one that existed only before
+        Map<FileContextItem, Integer> netChanges = new LinkedHashMap<>();
+        // Item each replacement result originally replaced
+        Map<FileContextItem, FileContextItem> replacedOrigins = new HashMap<>();
+        Set<FileContextItem> relocatedItems = new LinkedHashSet<>();
+
+        for (FilesChangeEvent event : events) {
+            relocatedItems.addAll(event.relocated());
+            for (FileContextItem item : event.removed()) {
+                netChanges.merge(item, -1, Integer::sum);
+            }
+            for (Replacement replacement : event.replaced()) {
+                netChanges.merge(replacement.previous(), -1, Integer::sum);
+                netChanges.merge(replacement.current(), 1, Integer::sum);
+                FileContextItem origin = replacedOrigins.getOrDefault(replacement.previous(), replacement.previous());
+                replacedOrigins.put(replacement.current(), origin);
+            }
+            for (FileContextItem item : event.added()) {
+                netChanges.merge(item, 1, Integer::sum);
+            }
+        }
+
+        List<FileContextItem> added = new ArrayList<>();
+        List<Replacement> replaced = new ArrayList<>();
+        Set<FileContextItem> consumedOrigins = new HashSet<>();
+        for (Map.Entry<FileContextItem, Integer> change : netChanges.entrySet()) {
+            if (change.getValue() <= 0) {
+                continue;
+            }
+            FileContextItem origin = replacedOrigins.get(change.getKey());
+            if (origin != null && netChanges.get(origin) < 0 && consumedOrigins.add(origin)) {
+                replaced.add(new Replacement(origin, change.getKey()));
+            } else {
+                added.add(change.getKey());
+            }
+        }
+        List<FileContextItem> removed = new ArrayList<>();
+        for (Map.Entry<FileContextItem, Integer> change : netChanges.entrySet()) {
+            if (change.getValue() < 0 && !consumedOrigins.contains(change.getKey())) {
+                removed.add(change.getKey());
+            }
+        }
+        // Added, removed and replacing items are placed from scratch by listeners anyway
+        List<FileContextItem> relocated = relocatedItems.stream()
+                .filter(item -> netChanges.getOrDefault(item, 0) == 0)
+                .toList();
+        return new FilesChangeEvent(events.get(events.size() - 1).version(), added, removed, replaced, relocated, false);
+    }
+
+    /**
+     * Collects the items of each changed file before and after the mutations of one operation.
+     * Only the first state before and the last state after are kept per file, so intermediate states cancel out.
+     */
+    static final class Builder {
+
+        private final Map<VirtualFile, List<FileContextItem>> itemsBefore = new LinkedHashMap<>();
+        private final Map<VirtualFile, List<FileContextItem>> itemsAfter = new LinkedHashMap<>();
+        private final List<FileContextItem> relocated = new ArrayList<>();
+
+        void fileChanged(@NotNull VirtualFile file, @NotNull List<FileContextItem> before, @NotNull List<FileContextItem> after) {
+            itemsBefore.putIfAbsent(file, before);
+            itemsAfter.put(file, after);
+        }
+
+        /**
+         * Reports the items of a file that was renamed or moved, directly or with a parent directory
+         */
+        void fileRelocated(@NotNull List<FileContextItem> items) {
+            relocated.addAll(items);
+        }
+
+        boolean isEmpty() {
+            return itemsBefore.isEmpty() && relocated.isEmpty();
+        }
+
+        @NotNull FilesChangeEvent build(long version) {
+            List<FileContextItem> added = new ArrayList<>();
+            List<FileContextItem> removed = new ArrayList<>();
+            List<Replacement> replaced = new ArrayList<>();
+
+            for (Map.Entry<VirtualFile, List<FileContextItem>> fileEntry : itemsBefore.entrySet()) {
+                List<FileContextItem> before = fileEntry.getValue();
+                List<FileContextItem> after = itemsAfter.get(fileEntry.getKey());
+                Set<FileContextItem> beforeSet = new HashSet<>(before);
+                Set<FileContextItem> afterSet = new HashSet<>(after);
+
+                List<FileContextItem> fileRemoved = before.stream().filter(item -> !afterSet.contains(item)).toList();
+                List<FileContextItem> fileAdded = after.stream().filter(item -> !beforeSet.contains(item)).toList();
+                if (fileRemoved.size() == 1 && fileAdded.size() == 1) {
+                    replaced.add(new Replacement(fileRemoved.get(0), fileAdded.get(0)));
+                } else {
+                    removed.addAll(fileRemoved);
+                    added.addAll(fileAdded);
+                }
+            }
+            return new FilesChangeEvent(version, added, removed, replaced, relocated, false);
+        }
+    }
+}
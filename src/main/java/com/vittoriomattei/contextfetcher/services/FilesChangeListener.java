@@ -1,6 +1,29 @@
 package com.vittoriomattei.contextfetcher.services;
 
+import org.jetbrains.annotations.NotNull;
+
 @FunctionalInterface
 public interface FilesChangeListener {
+
+    /**
+     * Where and how often a listener is notified
+     */
+    enum Delivery {
+        /** Every change, synchronously on the thread that made it */
+        IMMEDIATE,
+        /** Changes of a short window merged into one event, on the EDT */
+        EDT,
+        /** Changes of a short window merged into one event, on a pooled thread */
+        BACKGROUND
+    }
+
     void onFilesChanged();
+
+    /**
+     * Called with the items changed by an operation. Listeners that only need to know
+     * that something changed can implement {@link #onFilesChanged()} alone.
+     */
+    default void onFilesChanged(@NotNull FilesChangeEvent event) {
+        onFilesChanged();
+    }
 }
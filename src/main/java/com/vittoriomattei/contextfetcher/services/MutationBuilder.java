@@ -0,0 +1,26 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Records the mutations of a {@link FileAggregatorService#batch} call.
+ * Mutations follow the rules of the matching single-item methods and are applied in the order they are recorded.
+ */
+public interface MutationBuilder {
+
+    @NotNull MutationBuilder addFile(@NotNull VirtualFile file);
+
+    @NotNull MutationBuilder addSnippet(@NotNull VirtualFile file, @NotNull LineRange lineRange);
+
+    @NotNull MutationBuilder removeFile(@NotNull VirtualFile file);
+
+    @NotNull MutationBuilder removeSnippet(@NotNull VirtualFile file, @NotNull LineRange lineRange);
+
+    /**
+     * Removes a whole file item or the lines of a snippet item
+     */
+    @NotNull MutationBuilder remove(@NotNull FileContextItem item);
+}
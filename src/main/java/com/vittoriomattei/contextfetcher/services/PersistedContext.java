@@ -0,0 +1,80 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialized form of the aggregator's items, stored in the project's workspace file.
+ * Each tracked file is stored once by URL with its snippets packed into a single string,
+ * so the state stays small even for contexts with thousands of files.
+ */
+public final class PersistedContext {
+
+    private PersistedContext() {
+    }
+
+    /**
+     * Bean written by the platform's XML serializer
+     */
+    public static final class State {
+        public String activeProfile;
+        // Files of the active profile: file URL -> packed snippet ranges, an empty string for a whole file
+        public Map<String, String> files = new LinkedHashMap<>();
+        public List<ProfileState> profiles = new ArrayList<>();
+    }
+
+    /**
+     * Files of an inactive profile, in the same form as {@link State#files}
+     */
+    public static final class ProfileState {
+        public String name;
+        public Map<String, String> files = new LinkedHashMap<>();
+    }
+
+    /**
+     * Packs ranges as {@code start-end} pairs separated by commas, or just {@code start} for single-line ranges
+     */
+    static @NotNull String pack(@NotNull List<LineRange> ranges) {
+        StringBuilder packed = new StringBuilder();
+        for (LineRange range : ranges) {
+            if (!packed.isEmpty()) {
+                packed.append(',');
+            }
+            packed.append(range.startLine());
+            if (range.endLine() != range.startLine()) {
+                packed.append('-').append(range.endLine());
+            }
+        }
+        return packed.toString();
+    }
+
+    /**
+     * @return the ranges packed in {@code packed}, or null if it is malformed
+     */
+    static @Nullable List<LineRange> unpack(@NotNull String packed) {
+        List<LineRange> ranges = new ArrayList<>();
+        if (packed.isEmpty()) {
+            return ranges;
+        }
+        try {
+            for (String part : packed.split(",")) {
+                int dash = part.indexOf('-', 1);
+                int start = Integer.parseInt(dash < 0 ? part : part.substring(0, dash));
+                int end = dash < 0 ? start : Integer.parseInt(part.substring(dash + 1));
+                if (start < 0 || end < start) {
+                    return null;
+                }
+                ranges.add(new LineRange(start, end));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,330 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.vittoriomattei.contextfetcher.listeners.TokenCountListener;
+import com.vittoriomattei.contextfetcher.model.ContextBudget;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import com.vittoriomattei.contextfetcher.util.LineIndex;
+import com.vittoriomattei.contextfetcher.util.TokenCounter;
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the token count and the UTF-8 size of every item in the context, so the size of the context is known
+ * before it is generated or pasted.
+ * Counts are computed on a background thread and reused while the content stamp of the item's file is unchanged.
+ * The total is updated incrementally and can be read in O(1) from any thread.
+ * Changes of the context only count the items they add, and edits of a file in the context only recount the items
+ * of that file, once the edits paused for a moment.
+ */
+public class TokenCountService implements FilesChangeListener, Disposable {
+
+    public static final int UNKNOWN = -1;
+
+    private static final Logger LOG = Logger.getInstance(TokenCountService.class);
+
+    // A single thread, so recounts never overlap and counts are only written by one thread
+    private static final ExecutorService COUNTER = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "ContextFetcher Token Counter", 1);
+    // Typing pauses longer than this between words, so a file is recounted once per burst of edits
+    private static final long CONTENT_CHANGE_DELAY_MILLIS = 300;
+
+    private final FileAggregatorService fileService;
+    private final FileContentSource contentSource = new FileContentSource(FileContentCache.getInstance());
+    private final TokenCounter tokenCounter;
+
+    private final ConcurrentHashMap<FileContextItem, ItemCount> counts = new ConcurrentHashMap<>();
+    private final AtomicLong totalTokens = new AtomicLong();
+    private final AtomicBoolean recountQueued = new AtomicBoolean();
+
+    private final Set<VirtualFile> changedFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean contentRecountScheduled = new AtomicBoolean();
+    private volatile long lastContentChange;
+
+    private final CopyOnWriteArrayList<TokenCountListener> listeners = new CopyOnWriteArrayList<>();
+
+    public TokenCountService(@NotNull Project project) {
+        this(project.getService(FileAggregatorService.class), new TokenEstimator());
+        fileService.addChangeListener(this, Delivery.BACKGROUND);
+        scheduleRecount();
+    }
+
+    TokenCountService(@NotNull FileAggregatorService fileService, @NotNull TokenCounter tokenCounter) {
+        this.fileService = fileService;
+        this.tokenCounter = tokenCounter;
+    }
+
+    public static TokenCountService getInstance(@NotNull Project project) {
+        return project.getService(TokenCountService.class);
+    }
+
+    /**
+     * Token count of {@code item}, or {@link #UNKNOWN} if it was not counted yet
+     */
+    public int getTokenCount(@NotNull FileContextItem item) {
+        ItemCount count = counts.get(item);
+        return count != null ? count.tokens() : UNKNOWN;
+    }
+
+    /**
+     * Size of the content of {@code item} in {@code unit}, or {@link #UNKNOWN} if it was not counted
+     * for the content with {@code contentStamp}. The section around the content is not included.
+     */
+    public long getContentSize(@NotNull FileContextItem item, long contentStamp, @NotNull ContextBudget.Unit unit) {
+        ItemCount count = counts.get(item);
+        if (count == null || count.contentStamp() != contentStamp) {
+            return UNKNOWN;
+        }
+        return unit == ContextBudget.Unit.TOKENS ? count.tokens() : count.bytes();
+    }
+
+    /**
+     * Counter of the cached counts, for measuring text the same way
+     */
+    public @NotNull TokenCounter getTokenCounter() {
+        return tokenCounter;
+    }
+
+    /**
+     * Sum of the token counts of all counted items
+     */
+    public long getTotalTokens() {
+        return totalTokens.get();
+    }
+
+    @Override
+    public void onFilesChanged() {
+        scheduleRecount();
+    }
+
+    /**
+     * Applies the delta of {@code event} on the counter thread, only a reset recounts every item
+     */
+    @Override
+    public void onFilesChanged(@NotNull FilesChangeEvent event) {
+        if (event.reset()) {
+            scheduleRecount();
+            return;
+        }
+        // Events arrive in order and the counter runs one task at a time, so deltas are applied in order
+        COUNTER.execute(() -> applyChanges(event));
+    }
+
+    /**
+     * Drops the counts of the removed and replaced items and counts the added and replacing ones.
+     * Items the event does not mention are not visited.
+     */
+    void applyChanges(@NotNull FilesChangeEvent event) {
+        boolean changed = false;
+        List<FileContextItem> counted = new ArrayList<>(event.added());
+        for (FileContextItem item : event.removed()) {
+            changed |= dropCount(item);
+        }
+        for (FilesChangeEvent.Replacement replacement : event.replaced()) {
+            changed |= dropCount(replacement.previous());
+            counted.add(replacement.current());
+        }
+
+        Map<VirtualFile, List<FileContextItem>> groupedItems = counted.stream()
+                .collect(Collectors.groupingBy(FileContextItem::getVirtualFile, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<VirtualFile, List<FileContextItem>> fileEntry : groupedItems.entrySet()) {
+            changed |= ReadAction.compute(() -> countFile(fileEntry.getKey(), fileEntry.getValue()));
+        }
+
+        if (changed) {
+            notifyListeners();
+        }
+    }
+
+    private boolean dropCount(FileContextItem item) {
+        ItemCount removed = counts.remove(item);
+        if (removed == null) {
+            return false;
+        }
+        totalTokens.addAndGet(-removed.tokens());
+        return true;
+    }
+
+    /**
+     * Recounts the items of {@code file} if it is part of the context, once its content stopped changing
+     * for {@link #CONTENT_CHANGE_DELAY_MILLIS}. Called for every document change, so it only records the file.
+     */
+    public void onContentChanged(@NotNull VirtualFile file) {
+        if (!fileService.containsFile(file)) {
+            return;
+        }
+        changedFiles.add(file);
+        lastContentChange = System.nanoTime();
+        if (contentRecountScheduled.compareAndSet(false, true)) {
+            scheduleContentRecount(CONTENT_CHANGE_DELAY_MILLIS);
+        }
+    }
+
+    private void scheduleContentRecount(long delayMillis) {
+        AppExecutorUtil.getAppScheduledExecutorService()
+                .schedule(this::contentChangesSettled, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void contentChangesSettled() {
+        // A later change postpones the recount instead of scheduling one per change
+        long quietMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastContentChange);
+        if (quietMillis < CONTENT_CHANGE_DELAY_MILLIS) {
+            scheduleContentRecount(CONTENT_CHANGE_DELAY_MILLIS - quietMillis);
+            return;
+        }
+        // Cleared first, so changes made from now on schedule another recount
+        contentRecountScheduled.set(false);
+        COUNTER.execute(this::recountChangedFiles);
+    }
+
+    /**
+     * Counts again the items of the files whose content changed, the other items are not visited
+     */
+    void recountChangedFiles() {
+        List<VirtualFile> files = new ArrayList<>(changedFiles);
+        changedFiles.removeAll(files);
+
+        boolean changed = false;
+        for (VirtualFile file : files) {
+            changed |= ReadAction.compute(() -> countFile(file, fileService.getItemsForFile(file)));
+        }
+        if (changed) {
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Queues a recount in the background. Requests made while a recount is queued are coalesced into it.
+     */
+    public void scheduleRecount() {
+        if (recountQueued.compareAndSet(false, true)) {
+            COUNTER.execute(this::recount);
+        }
+    }
+
+    /**
+     * Brings the counts up to date with the items in the context: counts of removed items are dropped,
+     * and only added items or items whose file changed are counted again.
+     * Visits every item, so it is only used initially and after a reset.
+     */
+    void recount() {
+        // Cleared first, so changes made during this recount queue another one
+        recountQueued.set(false);
+
+        List<FileContextItem> items = fileService.getAllItems();
+        Set<FileContextItem> currentItems = new HashSet<>(items);
+        boolean changed = false;
+
+        for (FileContextItem item : counts.keySet()) {
+            if (!currentItems.contains(item)) {
+                changed |= dropCount(item);
+            }
+        }
+
+        Map<VirtualFile, List<FileContextItem>> groupedItems = items.stream()
+                .collect(Collectors.groupingBy(FileContextItem::getVirtualFile, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<VirtualFile, List<FileContextItem>> fileEntry : groupedItems.entrySet()) {
+            changed |= ReadAction.compute(() -> countFile(fileEntry.getKey(), fileEntry.getValue()));
+        }
+
+        if (changed) {
+            notifyListeners();
+        }
+    }
+
+    private boolean countFile(VirtualFile file, List<FileContextItem> items) {
+        if (!file.isValid()) {
+            return false;
+        }
+        long stamp = contentSource.getContentStamp(file);
+        CharSequence content = null;
+        LineIndex lineIndex = null;
+        boolean changed = false;
+
+        for (FileContextItem item : items) {
+            ItemCount previous = counts.get(item);
+            if (previous != null && previous.contentStamp() == stamp) {
+                continue;
+            }
+            if (content == null) {
+                try {
+                    content = contentSource.getContent(file);
+                } catch (IOException e) {
+                    LOG.warn("Could not load content to count tokens: " + file.getPath(), e);
+                    return changed;
+                }
+            }
+            if (item.isSnippet() && lineIndex == null) {
+                lineIndex = LineIndex.of(content);
+            }
+
+            int start = 0;
+            int end = content.length();
+            if (item.isSnippet()) {
+                LineRange lineRange = item.getLineRange();
+                int lineStart = Math.max(lineRange.startLine(), 0);
+                if (lineStart >= lineIndex.getLineCount()) {
+                    end = 0;
+                } else {
+                    int lineEnd = Math.min(Math.max(lineRange.endLine(), lineStart), lineIndex.getLineCount() - 1);
+                    start = lineIndex.getLineStartOffset(lineStart);
+                    end = lineIndex.getLineEndOffset(lineEnd);
+                }
+            }
+            int tokens = tokenCounter.countTokens(content, start, end);
+            ItemCount replaced = counts.put(item, new ItemCount(stamp, tokens, ContextBudget.utf8Length(content, start, end)));
+            totalTokens.addAndGet(tokens - (replaced != null ? replaced.tokens() : 0));
+            changed = true;
+        }
+        return changed;
+    }
+
+    public void addTokenCountListener(@NotNull TokenCountListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeTokenCountListener(@NotNull TokenCountListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners() {
+        long total = totalTokens.get();
+        for (TokenCountListener listener : listeners) {
+            try {
+                listener.onTokenCountsChanged(total);
+            } catch (Exception e) {
+                LOG.error("Error notifying token count listener", e);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        fileService.removeChangeListener(this);
+        listeners.clear();
+    }
+
+    private record ItemCount(long contentStamp, int tokens, long bytes) {
+    }
+}
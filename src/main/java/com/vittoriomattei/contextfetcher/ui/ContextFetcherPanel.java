@@ -1,7 +1,9 @@
 package com.vittoriomattei.contextfetcher.ui;
 
 import com.intellij.openapi.actionSystem.DataProvider;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.ui.IdeBorderFactory;
 import com.intellij.ui.JBSplitter;
 import com.intellij.util.ui.JBUI;
@@ -18,7 +20,7 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.awt.*;
 
-public class ContextFetcherPanel extends JPanel implements DataProvider {
+public class ContextFetcherPanel extends JPanel implements DataProvider, Disposable {
 
     // UI Components
     private final ToolbarPanel toolbarPanel;
@@ -36,6 +38,8 @@ public class ContextFetcherPanel extends JPanel implements DataProvider {
                 fileService
         );
         this.previewPanel = new PreviewPanel(project, contextService);
+        Disposer.register(this, fileListPanel);
+        Disposer.register(this, previewPanel);
 
         setupComponents();
         layoutComponents();
@@ -66,11 +70,18 @@ public class ContextFetcherPanel extends JPanel implements DataProvider {
 
 
 
+    @Override
+    public void dispose() {
+    }
+
     @Override
     public @Nullable Object getData(@NotNull @NonNls String dataId) {
         if (DataKeys.SELECTED_FILES_KEY.is(dataId)) {
             return fileListPanel.getSelectedFileList();
         }
+        if (DataKeys.FILE_LIST_PANEL_KEY.is(dataId)) {
+            return fileListPanel;
+        }
         return null;
     }
 }
\ No newline at end of file
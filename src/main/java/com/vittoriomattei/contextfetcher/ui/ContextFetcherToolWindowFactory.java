@@ -18,6 +18,8 @@ public class ContextFetcherToolWindowFactory implements ToolWindowFactory {
 
         ContentFactory contentFactory = ContentFactory.getInstance();
         Content content = contentFactory.createContent(panel, "", false);
+        // Releases the preview editor and the listeners of the panels when the tool window content goes away
+        content.setDisposer(panel);
         toolWindow.getContentManager().addContent(content);
     }
 }
@@ -1,30 +1,107 @@
 package com.vittoriomattei.contextfetcher.ui.panel;
 
-import com.intellij.markdown.utils.doc.DocMarkdownToHtmlConverter;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.EditorKind;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory;
+import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.ui.components.JBHtmlPane;
-import com.intellij.ui.components.JBScrollPane;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.JBUI;
-import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.Nullable;
 
-public class CodePanel extends JBScrollPane {
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only viewer of the generated context. The document is built and lexed off the EDT and shown in an editor,
+ * which only lays out and paints the visible lines, so multi-megabyte contexts never block the UI.
+ * An update is dropped if a newer one arrives before it is shown.
+ */
+public class CodePanel extends JPanel implements Disposable {
+
+    // Lexing larger contexts for highlighting would cost more than it helps
+    private static final int HIGHLIGHTING_LIMIT = 1024 * 1024;
 
-    private final JBHtmlPane editorPane;
     private final Project project;
+    private final AtomicLong latestUpdate = new AtomicLong();
+    private volatile boolean disposed;
+    // Only accessed on the EDT
+    private EditorEx editor;
 
     public CodePanel(Project project) {
+        super(new BorderLayout());
         this.project = project;
-        editorPane = new JBHtmlPane();
-        editorPane.setEditable(false);
-        editorPane.setBorder(JBUI.Borders.empty(10));
-        editorPane.setBackground(UIUtil.getPanelBackground());
-        setViewportView(editorPane);
     }
 
+    /**
+     * Shows {@code markdownText}, can be called from any thread
+     */
     public void setMarkdownText(String markdownText) {
-        String html = DocMarkdownToHtmlConverter.convert(project, markdownText);
+        long update = latestUpdate.incrementAndGet();
+        AppExecutorUtil.getAppExecutorService().execute(() -> {
+            if (update != latestUpdate.get() || disposed) {
+                return;
+            }
+            // A new document needs no write lock, only changing a shown document would.
+            // The generated context already uses \n separators, so the text is not copied to convert them
+            Document document = EditorFactory.getInstance().createDocument(markdownText);
+            document.setReadOnly(true);
+            EditorHighlighter highlighter = markdownText.length() <= HIGHLIGHTING_LIMIT
+                    ? ReadAction.compute(() -> EditorHighlighterFactory.getInstance().createEditorHighlighter(
+                            project, FileTypeManager.getInstance().getFileTypeByExtension("md")))
+                    : null;
+            if (highlighter != null && update == latestUpdate.get()) {
+                // Lexed here, so the EDT only attaches a highlighter that already holds the document's tokens
+                highlighter.setText(document.getImmutableCharSequence());
+            }
+
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (update == latestUpdate.get()) {
+                    show(document, highlighter);
+                }
+            }, ModalityState.any(), o -> disposed);
+        });
+    }
+
+    private void show(Document document, @Nullable EditorHighlighter highlighter) {
+        EditorEx previous = editor;
+        editor = (EditorEx) EditorFactory.getInstance().createViewer(document, project, EditorKind.PREVIEW);
+        editor.getSettings().setLineNumbersShown(false);
+        editor.getSettings().setFoldingOutlineShown(false);
+        editor.getSettings().setLineMarkerAreaShown(false);
+        editor.getSettings().setIndentGuidesShown(false);
+        editor.getSettings().setCaretRowShown(false);
+        editor.getSettings().setAdditionalLinesCount(0);
+        editor.getSettings().setAdditionalColumnsCount(0);
+        if (highlighter != null) {
+            editor.setHighlighter(highlighter);
+        }
+        editor.setBorder(JBUI.Borders.empty(10));
+
+        removeAll();
+        add(editor.getComponent(), BorderLayout.CENTER);
+        revalidate();
+        repaint();
+
+        if (previous != null) {
+            EditorFactory.getInstance().releaseEditor(previous);
+        }
+    }
 
-        editorPane.setText(html);
-        getVerticalScrollBar().setValue(0);
+    @Override
+    public void dispose() {
+        disposed = true;
+        if (editor != null) {
+            EditorFactory.getInstance().releaseEditor(editor);
+            editor = null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,37 +1,75 @@
 package com.vittoriomattei.contextfetcher.ui.panel;
 
+import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
 import com.intellij.openapi.project.Project;
+import com.intellij.ui.ScrollPaneFactory;
 import com.intellij.ui.components.JBList;
+import com.intellij.ui.treeStructure.Tree;
+import com.intellij.util.ui.JBUI;
+import com.vittoriomattei.contextfetcher.listeners.TokenCountListener;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
 import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
+import com.vittoriomattei.contextfetcher.services.FilesChangeEvent;
 import com.vittoriomattei.contextfetcher.services.FilesChangeListener;
+import com.vittoriomattei.contextfetcher.services.TokenCountService;
+import com.vittoriomattei.contextfetcher.ui.renderer.ContextTreeCellRenderer;
 import com.vittoriomattei.contextfetcher.ui.renderer.FileContextItemRenderer;
+import com.vittoriomattei.contextfetcher.ui.tree.ContextTreeModel;
+import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
+import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
-public class FileListPanel extends JPanel implements FilesChangeListener, Disposable {
+public class FileListPanel extends JPanel implements FilesChangeListener, TokenCountListener, Disposable {
+    private static final int PREFERRED_CELL_WIDTH = 200;
+    private static final String TREE_MODE_PROPERTY = "contextfetcher.file.list.tree.mode";
+    private static final String LIST_CARD = "list";
+    private static final String TREE_CARD = "tree";
+
+    private final Project project;
+    private final CardLayout cardLayout = new CardLayout();
+    private final JPanel cards = new JPanel(cardLayout);
     private final JBList<FileContextItem> fileListComponent;
     private final DefaultListModel<FileContextItem> fileListModel;
     private final FileAggregatorService fileService;
+    private final TokenCountService tokenCountService;
+    // Version of the aggregator items shown in the model, changes up to it are already applied
+    private long modelVersion;
+    // Created the first time the tree mode is shown, then kept up to date like the list
+    private Tree fileTree;
+    private ContextTreeModel treeModel;
+    private boolean treeMode;
 
     public FileListPanel(Project project, FileAggregatorService fileService) {
         super(new BorderLayout());
+        this.project = project;
         this.fileService = fileService;
+        this.tokenCountService = TokenCountService.getInstance(project);
 
         this.fileListModel = new DefaultListModel<>();
-        var fileList = fileService.getAllItems();
-        fileService.addChangeListener(this);
-        fileListModel.addAll(fileList);
+        fileService.addChangeListener(this, FilesChangeListener.Delivery.EDT);
+        var snapshot = fileService.getSortedSnapshot();
+        this.modelVersion = snapshot.version();
+        fileListModel.addAll(snapshot.items());
         this.fileListComponent = new JBList<>(fileListModel);
-        this.fileListComponent.setCellRenderer(new FileContextItemRenderer());
+        this.fileListComponent.setCellRenderer(new FileContextItemRenderer(tokenCountService));
+        // Every cell has the same single-line layout, so the list never measures the rows. Cells are still
+        // painted as wide as the list, the fixed width is only its preferred width.
+        this.fileListComponent.setFixedCellHeight(FileContextItemRenderer.cellHeight(fileListComponent));
+        this.fileListComponent.setFixedCellWidth(JBUI.scale(PREFERRED_CELL_WIDTH));
+        tokenCountService.addTokenCountListener(this);
         MouseListener doubleClickListener = new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
@@ -52,10 +90,7 @@ public class FileListPanel extends JPanel implements FilesChangeListener, Dispos
                 if (clickedComponent == -1) {
                     return;
                 }
-                var clickedFile = fileListModel.getElementAt(clickedComponent);
-                var line = clickedFile.isSnippet() ? clickedFile.getLineRange().startLine() : -1;
-                OpenFileDescriptor ofd = new OpenFileDescriptor(project, clickedFile.getVirtualFile(), line, -1);
-                ofd.navigate(true);
+                navigate(fileListModel.getElementAt(clickedComponent));
             }
         };
         this.fileListComponent.addMouseListener(
@@ -63,21 +98,179 @@ public class FileListPanel extends JPanel implements FilesChangeListener, Dispos
 
         );
 
-        add(this.fileListComponent);
+        cards.add(ScrollPaneFactory.createScrollPane(this.fileListComponent), LIST_CARD);
+        add(cards);
+        setTreeMode(PropertiesComponent.getInstance(project).getBoolean(TREE_MODE_PROPERTY));
+    }
+
+    private void navigate(FileContextItem item) {
+        var line = item.isSnippet() ? item.getLineRange().startLine() : -1;
+        OpenFileDescriptor ofd = new OpenFileDescriptor(project, item.getVirtualFile(), line, -1);
+        ofd.navigate(true);
+    }
+
+    public boolean isTreeMode() {
+        return treeMode;
+    }
+
+    /**
+     * Shows the items grouped by module and directory instead of the flat list, the choice is kept per project
+     */
+    public void setTreeMode(boolean treeMode) {
+        this.treeMode = treeMode;
+        PropertiesComponent.getInstance(project).setValue(TREE_MODE_PROPERTY, treeMode);
+        if (treeMode && fileTree == null) {
+            createTree();
+        }
+        cardLayout.show(cards, treeMode ? TREE_CARD : LIST_CARD);
+    }
+
+    private void createTree() {
+        treeModel = new ContextTreeModel(ContextTreeModel.projectLocator(project));
+        // Built from the list model rather than a new snapshot, so both views are at modelVersion
+        treeModel.reset(Collections.list(fileListModel.elements()));
+        fileTree = new Tree(treeModel);
+        fileTree.setRootVisible(false);
+        fileTree.setShowsRootHandles(true);
+        fileTree.setCellRenderer(new ContextTreeCellRenderer(tokenCountService));
+        // Every row has the same height, so the tree only lays out the rows it shows
+        fileTree.setRowHeight(FileContextItemRenderer.cellHeight(fileTree));
+        fileTree.setLargeModel(true);
+        fileTree.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() < 2) {
+                    return;
+                }
+                TreePath path = fileTree.getPathForLocation(e.getX(), e.getY());
+                if (path != null && path.getLastPathComponent() instanceof FileContextItem item) {
+                    navigate(item);
+                }
+            }
+        });
+        cards.add(ScrollPaneFactory.createScrollPane(fileTree), TREE_CARD);
     }
 
     @Override
     public void onFilesChanged() {
+        var snapshot = this.fileService.getSortedSnapshot();
+        this.modelVersion = snapshot.version();
         this.fileListModel.clear();
-        this.fileListModel.addAll(this.fileService.getSortedItems());
+        this.fileListModel.addAll(snapshot.items());
+        if (treeModel != null) {
+            treeModel.reset(snapshot.items());
+        }
+    }
+
+    /**
+     * Applies only the changed items to the sorted model, each in O(log n) plus the shift of the model.
+     * Delivered on the EDT, with the changes of a burst already merged.
+     */
+    @Override
+    public void onFilesChanged(@NotNull FilesChangeEvent event) {
+        if (event.version() <= modelVersion) {
+            return;
+        }
+        if (event.reset()) {
+            onFilesChanged();
+            return;
+        }
+        modelVersion = event.version();
+
+        for (FileContextItem item : event.removed()) {
+            removeItem(item);
+        }
+        for (FilesChangeEvent.Replacement replacement : event.replaced()) {
+            removeItem(replacement.previous());
+            insertItem(replacement.current());
+        }
+        for (FileContextItem item : event.added()) {
+            insertItem(item);
+        }
+        for (FileContextItem item : event.relocated()) {
+            removeItem(item);
+            insertItem(item);
+        }
+        if (treeModel != null) {
+            treeModel.apply(event);
+        }
+    }
+
+    private void insertItem(FileContextItem item) {
+        // An item loaded together with the initial items may be reported again
+        if (indexOf(item) >= 0) {
+            return;
+        }
+        fileListModel.add(lowerBound(item), item);
+    }
+
+    private void removeItem(FileContextItem item) {
+        int index = indexOf(item);
+        if (index < 0) {
+            // A renamed file no longer sorts where it was inserted
+            index = fileListModel.indexOf(item);
+        }
+        if (index >= 0) {
+            fileListModel.remove(index);
+        }
+    }
+
+    private int indexOf(FileContextItem item) {
+        // Different items can compare as equal, e.g. files with the same name, so the whole run is checked
+        for (int i = lowerBound(item); i < fileListModel.size() && fileListModel.get(i).compareTo(item) == 0; i++) {
+            if (fileListModel.get(i).equals(item)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the first item of the model that is not smaller than {@code item}
+     */
+    private int lowerBound(FileContextItem item) {
+        int low = 0;
+        int high = fileListModel.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (fileListModel.get(middle).compareTo(item) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void onTokenCountsChanged(long totalTokens) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            fileListComponent.repaint();
+            if (fileTree != null) {
+                fileTree.repaint();
+            }
+        });
     }
 
     public List<FileContextItem> getSelectedFileList() {
-        return this.fileListComponent.getSelectedValuesList();
+        if (!treeMode) {
+            return this.fileListComponent.getSelectedValuesList();
+        }
+        // A selected group stands for every item under it
+        TreePath[] paths = fileTree.getSelectionPaths();
+        if (paths == null) {
+            return List.of();
+        }
+        Set<FileContextItem> selected = new LinkedHashSet<>();
+        for (TreePath path : paths) {
+            selected.addAll(treeModel.collectItems(path.getLastPathComponent()));
+        }
+        return new ArrayList<>(selected);
     }
 
     @Override
     public void dispose() {
         this.fileService.removeChangeListener(this);
+        this.tokenCountService.removeTokenCountListener(this);
     }
 }
\ No newline at end of file
@@ -4,28 +4,41 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.ActionGroup;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.ActionToolbar;
-import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.util.ui.JBUI;
 import com.vittoriomattei.contextfetcher.listeners.ContextUpdateListener;
+import com.vittoriomattei.contextfetcher.listeners.TokenCountListener;
 import com.vittoriomattei.contextfetcher.services.ContextGeneratorService;
+import com.vittoriomattei.contextfetcher.services.FileAggregatorService;
+import com.vittoriomattei.contextfetcher.services.FilesChangeListener;
+import com.vittoriomattei.contextfetcher.services.TokenCountService;
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.awt.*;
 
-public class PreviewPanel extends JPanel implements ContextUpdateListener, Disposable {
+public class PreviewPanel extends JPanel implements ContextUpdateListener, TokenCountListener, Disposable {
 
     private final ContextGeneratorService contextService;
+    private final TokenCountService tokenCountService;
+    private final FileAggregatorService fileService;
+    private final FilesChangeListener statisticsListener = this::updateStatusLabel;
     private final CodePanel codePreviewField;
     private final JLabel statusLabel;
+    private String status = "";
 
     public PreviewPanel(Project project, ContextGeneratorService contextService) {
         super(new BorderLayout());
         this.contextService = contextService;
+        this.tokenCountService = TokenCountService.getInstance(project);
+        this.fileService = project.getService(FileAggregatorService.class);
 
         this.codePreviewField = new CodePanel(project);
+        Disposer.register(this, codePreviewField);
         this.statusLabel = new JBLabel(" ");
 
         setupComponents();
@@ -39,6 +52,9 @@ public class PreviewPanel extends JPanel implements ContextUpdateListener, Dispo
         add(topPanel, BorderLayout.NORTH);
         add(codePreviewField, BorderLayout.CENTER);
         this.contextService.addContextUpdateListener(this);
+        this.tokenCountService.addTokenCountListener(this);
+        this.fileService.addChangeListener(statisticsListener, FilesChangeListener.Delivery.EDT);
+        updateStatusLabel();
     }
 
     private @NotNull ActionToolbar getActionToolbar() {
@@ -65,14 +81,29 @@ public class PreviewPanel extends JPanel implements ContextUpdateListener, Dispo
     @Override
     public void dispose() {
         contextService.removeContextUpdateListener(this);
+        tokenCountService.removeTokenCountListener(this);
+        fileService.removeChangeListener(statisticsListener);
     }
 
     @Override
     public void onContextUpdated(String newContent, String status) {
-        WriteAction.runAndWait(() -> {
-            this.codePreviewField.setMarkdownText(newContent);
-            statusLabel.setText(status);
+        // Rendered in the background, a newer context replaces this one if it arrives first
+        this.codePreviewField.setMarkdownText(newContent);
+        ApplicationManager.getApplication().invokeLater(() -> {
+            this.status = status;
+            updateStatusLabel();
         });
+    }
+
+    @Override
+    public void onTokenCountsChanged(long totalTokens) {
+        ApplicationManager.getApplication().invokeLater(this::updateStatusLabel);
+    }
 
+    private void updateStatusLabel() {
+        FileAggregatorService.ContextStatistics statistics = fileService.getStatistics();
+        String size = statistics.fileCount() + " files, " + statistics.snippetCount() + " snippets, "
+                + TokenEstimator.format(tokenCountService.getTotalTokens()) + " in context";
+        statusLabel.setText(status.isEmpty() ? size : status + " | " + size);
     }
 }
\ No newline at end of file
@@ -1,69 +1,179 @@
 package com.vittoriomattei.contextfetcher.ui.panel;
 
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.popup.JBPopup;
+import com.intellij.openapi.ui.popup.util.PopupUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.codeStyle.MinusculeMatcher;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.ScrollingUtil;
+import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.components.JBList;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.JBTextField;
+import com.intellij.ui.speedSearch.SpeedSearchUtil;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.JBEmptyBorder;
-import com.intellij.util.ui.JBUI;
+import com.vittoriomattei.contextfetcher.util.ProjectFileSearch;
+import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.List;
 import java.util.function.Consumer;
 
-public class RecentFilesPopupPanel extends JPanel {
-    public RecentFilesPopupPanel(List<VirtualFile> recentFiles, Consumer<VirtualFile> onFileSelected){
+/**
+ * Picker of the files to add to the context. With an empty query it shows the recent files, otherwise
+ * the recent and project files matching the query as a camel-hump pattern.
+ * Typing is debounced and matches are computed in a background read action, a newer query cancels the
+ * previous one. The selected files are reported together with Enter, a double click or the Add button.
+ */
+public class RecentFilesPopupPanel extends JPanel implements Disposable {
+
+    private static final int SEARCH_DELAY_MS = 100;
+    private static final int MAX_RESULTS = 200;
+
+    private final List<VirtualFile> recentFiles;
+    private final Consumer<List<VirtualFile>> onFilesSelected;
+    private final ProjectFileSearch fileSearch;
+    private final Alarm searchAlarm = new Alarm(this);
+    private final DefaultListModel<VirtualFile> listModel = new DefaultListModel<>();
+    private final JBList<VirtualFile> fileList = new JBList<>(listModel);
+    private final JBTextField searchField = new JBTextField();
+    // Matcher of the shown results, only accessed on the EDT
+    private MinusculeMatcher shownMatcher;
+
+    public RecentFilesPopupPanel(Project project, List<VirtualFile> recentFiles, Consumer<List<VirtualFile>> onFilesSelected){
         super(new BorderLayout(5, 5));
         setBorder(new JBEmptyBorder(8));
+        this.recentFiles = recentFiles;
+        this.onFilesSelected = onFilesSelected;
+        this.fileSearch = new ProjectFileSearch(project);
 
-        DefaultListModel<VirtualFile> listModel = new DefaultListModel<>();
-        recentFiles.forEach(listModel::addElement);
-
-        JBList<VirtualFile> fileList = new JBList<>(listModel);
-        setupFileListRenderer(fileList);
+        showResults(null, recentFiles);
+        setupFileListRenderer();
 
         // TextField for filtering
-        var searchField = new JBTextField();
-        searchField.getEmptyText().setText("Search recent files...");
+        searchField.getEmptyText().setText("Search recent and project files...");
+        searchField.getDocument().addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                searchAlarm.cancelAllRequests();
+                searchAlarm.addRequest(RecentFilesPopupPanel.this::search, SEARCH_DELAY_MS);
+            }
+        });
         searchField.addKeyListener(new KeyAdapter() {
             @Override
-            public void keyReleased(KeyEvent e) {
-                String query = searchField.getText().toLowerCase();
-                listModel.clear();
-                recentFiles.stream()
-                        .filter(file -> file.getName().toLowerCase().contains(query))
-                        .forEach(listModel::addElement);
+            public void keyPressed(KeyEvent e) {
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN -> ScrollingUtil.moveDown(fileList, e.getModifiersEx());
+                    case KeyEvent.VK_UP -> ScrollingUtil.moveUp(fileList, e.getModifiersEx());
+                    case KeyEvent.VK_ENTER -> addSelectedFiles();
+                    default -> {
+                        return;
+                    }
+                }
+                e.consume();
             }
         });
 
-        // The mouse listener now uses the callback to report selections.
-        fileList.addMouseListener(new java.awt.event.MouseAdapter() {
-            public void mouseClicked(java.awt.event.MouseEvent evt) {
-                VirtualFile selected = fileList.getSelectedValue();
-                if (selected != null) {
-                    onFileSelected.accept(selected);
+        fileList.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    addSelectedFiles();
+                    e.consume();
                 }
             }
         });
+        fileList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    addSelectedFiles();
+                }
+            }
+        });
+
+        JButton addButton = new JButton("Add Selected");
+        addButton.addActionListener(e -> addSelectedFiles());
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        buttonPanel.add(addButton);
 
         add(searchField, BorderLayout.NORTH);
         add(new JBScrollPane(fileList), BorderLayout.CENTER);
-        setPreferredSize(new Dimension(350, 450));
+        add(buttonPanel, BorderLayout.SOUTH);
+        setPreferredSize(new Dimension(450, 450));
     }
 
-    private void setupFileListRenderer(JBList<VirtualFile> fileList) {
-        fileList.setCellRenderer((list, value, index, isSelected, cellHasFocus) -> {
-            JLabel label = new JLabel(value.getName(), value.getFileType().getIcon(), JLabel.LEFT);
-            label.setBorder(JBUI.Borders.empty(2, 4));
-            if (isSelected) {
-                label.setBackground(list.getSelectionBackground());
-                label.setForeground(list.getSelectionForeground());
-                label.setOpaque(true);
+    public @NotNull JComponent getPreferredFocusedComponent() {
+        return searchField;
+    }
+
+    private void search() {
+        String query = searchField.getText().trim();
+        // Coalesced by this panel, so a newer query cancels the computation of the previous one,
+        // an empty query too so the matches of an older one never replace the recent files
+        ReadAction.nonBlocking(() -> query.isEmpty() ? recentFiles : fileSearch.search(query, recentFiles, MAX_RESULTS))
+                .coalesceBy(this)
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.any(),
+                        files -> showResults(query.isEmpty() ? null : ProjectFileSearch.matcher(query), files))
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    private void showResults(MinusculeMatcher matcher, List<VirtualFile> files) {
+        shownMatcher = matcher;
+        listModel.clear();
+        listModel.addAll(files);
+        if (!files.isEmpty()) {
+            fileList.setSelectedIndex(0);
+        }
+    }
+
+    private void addSelectedFiles() {
+        List<VirtualFile> selected = fileList.getSelectedValuesList();
+        if (selected.isEmpty()) {
+            return;
+        }
+        onFilesSelected.accept(selected);
+        JBPopup popup = PopupUtil.getPopupContainerFor(this);
+        if (popup != null) {
+            popup.closeOk(null);
+        }
+    }
+
+    private void setupFileListRenderer() {
+        fileList.setCellRenderer(new ColoredListCellRenderer<>() {
+            @Override
+            protected void customizeCellRenderer(@NotNull JList<? extends VirtualFile> list, VirtualFile value,
+                                                 int index, boolean selected, boolean hasFocus) {
+                setIcon(value.getFileType().getIcon());
+                if (shownMatcher != null) {
+                    SpeedSearchUtil.appendColoredFragmentForMatcher(value.getName(), this,
+                            SimpleTextAttributes.REGULAR_ATTRIBUTES, shownMatcher, getBackground(), selected);
+                } else {
+                    append(value.getName());
+                }
+                VirtualFile parent = value.getParent();
+                if (parent != null) {
+                    append("  " + parent.getPresentableUrl(), SimpleTextAttributes.GRAYED_SMALL_ATTRIBUTES);
+                }
             }
-            return label;
         });
     }
+
+    @Override
+    public void dispose() {
+    }
 }
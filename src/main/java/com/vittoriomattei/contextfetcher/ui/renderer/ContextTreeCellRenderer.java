@@ -0,0 +1,41 @@
+package com.vittoriomattei.contextfetcher.ui.renderer;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.ColoredTreeCellRenderer;
+import com.intellij.ui.SimpleTextAttributes;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.services.TokenCountService;
+import com.vittoriomattei.contextfetcher.ui.tree.ContextTreeModel;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+
+/**
+ * Renders the module and directory groups of the context tree with their totals, and items like the list does
+ */
+public class ContextTreeCellRenderer extends ColoredTreeCellRenderer {
+
+    private final FileContextItemRenderer itemRenderer;
+
+    public ContextTreeCellRenderer(TokenCountService tokenCountService) {
+        this.itemRenderer = new FileContextItemRenderer(tokenCountService);
+    }
+
+    @Override
+    public void customizeCellRenderer(@NotNull JTree tree, Object value, boolean selected, boolean expanded,
+                                      boolean leaf, int row, boolean hasFocus) {
+        if (value instanceof FileContextItem item) {
+            itemRenderer.render(this, item);
+        } else if (value instanceof ContextTreeModel.Group group) {
+            setIcon(group.isModule() ? AllIcons.Nodes.Module : AllIcons.Nodes.Folder);
+            append(group.getName());
+            append("  " + summary(group), SimpleTextAttributes.GRAYED_SMALL_ATTRIBUTES);
+        }
+    }
+
+    private static String summary(ContextTreeModel.Group group) {
+        String summary = group.getWholeFileCount() + " files, " + group.getSnippetCount() + " snippets";
+        return group.getWholeFileCount() > 0 ? summary + ", " + StringUtil.formatFileSize(group.getBytes()) : summary;
+    }
+}
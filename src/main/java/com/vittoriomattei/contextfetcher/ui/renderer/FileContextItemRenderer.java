@@ -1,71 +1,86 @@
 package com.vittoriomattei.contextfetcher.ui.renderer;
 
+import com.intellij.icons.AllIcons;
 import com.intellij.openapi.fileTypes.FileTypeManager;
-import com.intellij.ui.JBColor;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.SimpleColoredComponent;
+import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.util.ui.JBUI;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.services.TokenCountService;
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
+import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
-import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
 
-public class FileContextItemRenderer implements ListCellRenderer<FileContextItem> {
+/**
+ * Single-line cell with the file icon, the file name, the lines of a snippet and the token count.
+ * One component is reused for every cell and icons are cached per extension, so a cell costs the same
+ * to paint whatever the size of the list. Lists using it should set a fixed cell height.
+ */
+public class FileContextItemRenderer extends ColoredListCellRenderer<FileContextItem> {
 
-    @Override
-    public Component getListCellRendererComponent(
-            JList<? extends FileContextItem> list,
-            FileContextItem value,
-            int index,
-            boolean isSelected,
-            boolean cellHasFocus
-    ) {
-        // Root panel
-        JPanel panel = new JPanel(new BorderLayout());
-        panel.setBorder(JBUI.Borders.empty(4, 8));
-        panel.setOpaque(true);
+    private static final int VERTICAL_PADDING = 4;
+    private static final int HORIZONTAL_PADDING = 8;
 
-        // Colors
-        if (isSelected) {
-            panel.setBackground(list.getSelectionBackground());
-        } else {
-            panel.setBackground(list.getBackground());
-        }
+    private final TokenCountService tokenCountService;
+    // Only accessed on the EDT while painting. Keyed by name, so painting never resolves the type of a file.
+    private final Map<String, Icon> iconsByExtension = new HashMap<>();
+    private final Map<String, Icon> iconsByFileName = new HashMap<>();
+
+    public FileContextItemRenderer(TokenCountService tokenCountService) {
+        this.tokenCountService = tokenCountService;
+        setIpad(JBUI.insets(VERTICAL_PADDING, HORIZONTAL_PADDING));
+    }
 
-        // Left side: File icon and name
-        JPanel leftPanel = new JPanel(new BorderLayout(5, 0));
-        leftPanel.setOpaque(false);
+    @Override
+    protected void customizeCellRenderer(@NotNull JList<? extends FileContextItem> list, FileContextItem value,
+                                         int index, boolean selected, boolean hasFocus) {
+        render(this, value);
+    }
 
-        // File type icon
-        Icon fileIcon = FileTypeManager.getInstance().getFileTypeByFile(value.getVirtualFile()).getIcon();
-        JLabel iconLabel = new JLabel(fileIcon);
-        leftPanel.add(iconLabel, BorderLayout.WEST);
+    /**
+     * Fills {@code component} with the cell of {@code value}, also used by the tree renderer
+     */
+    public void render(@NotNull SimpleColoredComponent component, @NotNull FileContextItem value) {
+        component.setIcon(iconOf(value.getVirtualFile()));
+        component.append(value.getPresentableName());
 
-        // File name and line range
-        JPanel textPanel = new JPanel();
-        textPanel.setLayout(new BoxLayout(textPanel, BoxLayout.Y_AXIS));
-        textPanel.setOpaque(false);
+        if (value.isSnippet()) {
+            component.append("  Lines " + (value.getLineRange().startLine() + 1) + "–" + (value.getLineRange().endLine() + 1),
+                    SimpleTextAttributes.GRAYED_ITALIC_ATTRIBUTES);
+        }
 
-        // Primary text (file name)
-        JLabel nameLabel = new JLabel(value.getPresentableName());
-        if (isSelected) {
-            nameLabel.setForeground(list.getSelectionForeground());
-        } else {
-            nameLabel.setForeground(list.getForeground());
+        // Token count, once it is known
+        int tokens = tokenCountService.getTokenCount(value);
+        if (tokens != TokenCountService.UNKNOWN) {
+            component.append("  " + TokenEstimator.format(tokens), SimpleTextAttributes.GRAYED_SMALL_ATTRIBUTES);
         }
-        nameLabel.setFont(nameLabel.getFont().deriveFont(Font.PLAIN));
-        textPanel.add(nameLabel);
+    }
 
-        // Secondary text (line range if snippet)
-        if (value.isSnippet()) {
-            String rangeText = "Lines " + (value.getLineRange().startLine() + 1) + "–" + (value.getLineRange().endLine() + 1);
-            JLabel rangeLabel = new JLabel(rangeText);
-            rangeLabel.setFont(rangeLabel.getFont().deriveFont(Font.ITALIC, 11f));
-            rangeLabel.setForeground(JBColor.GRAY);
-            textPanel.add(rangeLabel);
+    private Icon iconOf(VirtualFile file) {
+        String extension = file.getExtension();
+        if (extension != null) {
+            return iconsByExtension.computeIfAbsent(extension,
+                    key -> iconOrDefault(FileTypeManager.getInstance().getFileTypeByExtension(key).getIcon()));
         }
+        // Files without an extension are typed by their whole name, e.g. Dockerfile
+        return iconsByFileName.computeIfAbsent(file.getName(),
+                key -> iconOrDefault(FileTypeManager.getInstance().getFileTypeByFileName(key).getIcon()));
+    }
 
-        leftPanel.add(textPanel, BorderLayout.CENTER);
-        panel.add(leftPanel, BorderLayout.CENTER);
+    private static Icon iconOrDefault(Icon icon) {
+        return icon != null ? icon : AllIcons.FileTypes.Any_type;
+    }
 
-        return panel;
+    /**
+     * Height of every cell shown in {@code component}, to pass to {@link JList#setFixedCellHeight(int)}
+     * or {@link JTree#setRowHeight(int)}
+     */
+    public static int cellHeight(@NotNull JComponent component) {
+        return component.getFontMetrics(component.getFont()).getHeight() + JBUI.scale(2 * VERTICAL_PADDING);
     }
-}
\ No newline at end of file
+}
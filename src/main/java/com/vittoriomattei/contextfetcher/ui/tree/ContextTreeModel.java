@@ -0,0 +1,400 @@
+package com.vittoriomattei.contextfetcher.ui.tree;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.services.FilesChangeEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Context items grouped by module and directory.
+ * The children of a group are only sorted when the tree first asks for them, i.e. when the group is expanded.
+ * A change touches only the groups of the changed items: items are placed by binary search and the totals
+ * of their directory, module and of the root are adjusted in place, so no change walks the tree.
+ * Must only be used on the EDT.
+ */
+public class ContextTreeModel implements TreeModel {
+
+    private static final String OUTSIDE_PROJECT = "Outside Project";
+
+    /**
+     * Groups an item is shown in
+     */
+    public record Location(@NotNull String module, @NotNull String directory) {
+    }
+
+    private record Placement(@NotNull Group directory, long bytes) {
+    }
+
+    private final Function<VirtualFile, Location> locator;
+    private final EventListenerList listeners = new EventListenerList();
+    private final Group root = new Group(null, "");
+    // Directory of each item when it was added, so removals do not depend on where the file is now
+    private final Map<FileContextItem, Placement> placements = new HashMap<>();
+    // Groups whose totals changed during the current update, each reported once at its end
+    private final Set<Group> changedGroups = new LinkedHashSet<>();
+
+    public ContextTreeModel(@NotNull Function<VirtualFile, Location> locator) {
+        this.locator = Objects.requireNonNull(locator, "locator cannot be null");
+    }
+
+    /**
+     * Groups files by module and by directory relative to their content root
+     */
+    public static @NotNull Function<VirtualFile, Location> projectLocator(@NotNull Project project) {
+        ProjectFileIndex index = ProjectFileIndex.getInstance(project);
+        return file -> ReadAction.compute(() -> {
+            Module module = index.getModuleForFile(file);
+            VirtualFile contentRoot = index.getContentRootForFile(file);
+            VirtualFile directory = file.getParent();
+            if (directory == null) {
+                return new Location(OUTSIDE_PROJECT, "");
+            }
+            String relativePath = contentRoot != null ? VfsUtilCore.getRelativePath(directory, contentRoot) : null;
+            if (relativePath == null) {
+                return new Location(module != null ? module.getName() : OUTSIDE_PROJECT, directory.getPresentableUrl());
+            }
+            return new Location(module != null ? module.getName() : OUTSIDE_PROJECT,
+                    relativePath.isEmpty() ? contentRoot.getName() : relativePath);
+        });
+    }
+
+    /**
+     * Replaces every item, in O(items) without sorting anything
+     */
+    public void reset(@NotNull Collection<FileContextItem> items) {
+        root.clear();
+        placements.clear();
+        changedGroups.clear();
+        for (FileContextItem item : items) {
+            add(item);
+        }
+        changedGroups.clear();
+        fireTreeStructureChanged();
+    }
+
+    /**
+     * Applies the items changed by {@code event}
+     */
+    public void apply(@NotNull FilesChangeEvent event) {
+        for (FileContextItem item : event.removed()) {
+            remove(item);
+        }
+        for (FilesChangeEvent.Replacement replacement : event.replaced()) {
+            remove(replacement.previous());
+            add(replacement.current());
+        }
+        for (FileContextItem item : event.added()) {
+            add(item);
+        }
+        // Removed from the group it was placed in, added to the group of its new location
+        for (FileContextItem item : event.relocated()) {
+            remove(item);
+            add(item);
+        }
+        for (Group group : changedGroups) {
+            fireGroupChanged(group);
+        }
+        changedGroups.clear();
+    }
+
+    /**
+     * Every item under {@code node}, or the item itself for a leaf
+     */
+    public @NotNull List<FileContextItem> collectItems(@NotNull Object node) {
+        List<FileContextItem> items = new ArrayList<>();
+        collectItems(node, items);
+        return items;
+    }
+
+    private static void collectItems(Object node, List<FileContextItem> items) {
+        if (node instanceof FileContextItem item) {
+            items.add(item);
+        } else if (node instanceof Group group) {
+            for (Object child : group.children.values()) {
+                collectItems(child, items);
+            }
+        }
+    }
+
+    private void add(FileContextItem item) {
+        if (placements.containsKey(item)) {
+            return;
+        }
+        Location location = locator.apply(item.getVirtualFile());
+        Group directory = group(group(root, location.module()), location.directory());
+        long bytes = item.isSnippet() ? 0 : item.getVirtualFile().getLength();
+        placements.put(item, new Placement(directory, bytes));
+        insertChild(directory, item, item);
+        adjustTotals(directory, item.isSnippet(), bytes, 1);
+    }
+
+    private void remove(FileContextItem item) {
+        Placement placement = placements.remove(item);
+        if (placement == null) {
+            return;
+        }
+        Group group = placement.directory();
+        adjustTotals(group, item.isSnippet(), placement.bytes(), -1);
+        removeChild(group, item);
+        // Drop the groups left empty
+        while (group.parent != null && group.children.isEmpty()) {
+            changedGroups.remove(group);
+            removeChild(group.parent, group.name);
+            group = group.parent;
+        }
+    }
+
+    private Group group(Group parent, String name) {
+        Object existing = parent.children.get(name);
+        if (existing != null) {
+            return (Group) existing;
+        }
+        Group group = new Group(parent, name);
+        insertChild(parent, name, group);
+        return group;
+    }
+
+    private void insertChild(Group parent, Object key, Object child) {
+        parent.children.put(key, child);
+        if (parent.sorted == null) {
+            return;
+        }
+        int index = lowerBound(parent.sorted, child);
+        parent.sorted.add(index, child);
+        fireChildEvent(parent, index, child, true);
+    }
+
+    private void removeChild(Group parent, Object key) {
+        Object child = parent.children.remove(key);
+        if (child == null || parent.sorted == null) {
+            return;
+        }
+        int index = indexOf(parent.sorted, child);
+        if (index < 0) {
+            // A renamed file no longer sorts where it was inserted
+            index = parent.sorted.indexOf(child);
+        }
+        if (index >= 0) {
+            parent.sorted.remove(index);
+            fireChildEvent(parent, index, child, false);
+        }
+    }
+
+    private void adjustTotals(Group directory, boolean snippet, long bytes, int sign) {
+        for (Group group = directory; group != null; group = group.parent) {
+            if (snippet) {
+                group.snippetCount += sign;
+            } else {
+                group.wholeFileCount += sign;
+                group.bytes += sign * bytes;
+            }
+            changedGroups.add(group);
+        }
+    }
+
+    private static List<Object> sorted(Group group) {
+        if (group.sorted == null) {
+            List<Object> sorted = new ArrayList<>(group.children.values());
+            sorted.sort(ORDER);
+            group.sorted = sorted;
+        }
+        return group.sorted;
+    }
+
+    private static final Comparator<Object> ORDER = (a, b) -> {
+        if (a instanceof Group first && b instanceof Group second) {
+            return first.name.compareTo(second.name);
+        }
+        return ((FileContextItem) a).compareTo((FileContextItem) b);
+    };
+
+    /**
+     * Index of the first child that is not smaller than {@code child}
+     */
+    private static int lowerBound(List<Object> children, Object child) {
+        int low = 0;
+        int high = children.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ORDER.compare(children.get(middle), child) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int indexOf(List<Object> children, Object child) {
+        // Different items can compare as equal, so the whole run is checked
+        for (int i = lowerBound(children, child); i < children.size() && ORDER.compare(children.get(i), child) == 0; i++) {
+            if (children.get(i).equals(child)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return sorted((Group) parent).get(index);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        // Counting does not need the sorted children, so collapsed groups are never sorted
+        return parent instanceof Group group ? group.children.size() : 0;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return !(node instanceof Group);
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (!(parent instanceof Group group) || child == null) {
+            return -1;
+        }
+        return indexOf(sorted(group), child);
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // Not editable
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(TreeModelListener.class, l);
+    }
+
+    private static Object[] path(Group group) {
+        Object[] path = new Object[group.depth() + 1];
+        for (Group current = group; current != null; current = current.parent) {
+            path[current.depth()] = current;
+        }
+        return path;
+    }
+
+    private void fireChildEvent(Group parent, int index, Object child, boolean inserted) {
+        TreeModelEvent event = new TreeModelEvent(this, path(parent), new int[]{index}, new Object[]{child});
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            if (inserted) {
+                listener.treeNodesInserted(event);
+            } else {
+                listener.treeNodesRemoved(event);
+            }
+        }
+    }
+
+    private void fireGroupChanged(Group group) {
+        TreeModelEvent event;
+        if (group.parent == null) {
+            event = new TreeModelEvent(this, path(group), null, null);
+        } else if (group.parent.sorted != null) {
+            int index = indexOf(group.parent.sorted, group);
+            if (index < 0) {
+                return;
+            }
+            event = new TreeModelEvent(this, path(group.parent), new int[]{index}, new Object[]{group});
+        } else {
+            // Not shown yet, it is rendered with its current totals once its parent is expanded
+            return;
+        }
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeNodesChanged(event);
+        }
+    }
+
+    private void fireTreeStructureChanged() {
+        TreeModelEvent event = new TreeModelEvent(this, new Object[]{root});
+        for (TreeModelListener listener : listeners.getListeners(TreeModelListener.class)) {
+            listener.treeStructureChanged(event);
+        }
+    }
+
+    /**
+     * Module or directory node, with the totals of every item under it
+     */
+    public static final class Group {
+        private final @Nullable Group parent;
+        private final String name;
+        // Groups by name, items by themselves
+        private final Map<Object, Object> children = new HashMap<>();
+        // Children in display order, built when the tree first asks for them
+        private @Nullable List<Object> sorted;
+        private int wholeFileCount;
+        private int snippetCount;
+        private long bytes;
+
+        private Group(@Nullable Group parent, @NotNull String name) {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        private void clear() {
+            children.clear();
+            sorted = null;
+            wholeFileCount = 0;
+            snippetCount = 0;
+            bytes = 0;
+        }
+
+        private int depth() {
+            return parent == null ? 0 : parent.depth() + 1;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+
+        public boolean isModule() {
+            return depth() == 1;
+        }
+
+        public int getWholeFileCount() {
+            return wholeFileCount;
+        }
+
+        public int getSnippetCount() {
+            return snippetCount;
+        }
+
+        /**
+         * Size of the whole files under this group, snippets are not counted
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
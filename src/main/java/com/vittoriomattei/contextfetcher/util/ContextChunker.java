@@ -0,0 +1,61 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a context into parts of at most a given number of characters, e.g. for chat inputs that limit how
+ * much text can be pasted. A part ends after a line separator whenever one fits, so a line is only cut when
+ * it is longer than a whole part.
+ */
+public final class ContextChunker {
+
+    /**
+     * Characters {@code [start, end)} of the split text
+     */
+    public record Part(int start, int end) {
+
+        /**
+         * The characters of this part as a view of {@code text}, nothing is copied
+         */
+        public @NotNull CharSequence of(@NotNull CharSequence text) {
+            return CharBuffer.wrap(text, start, end);
+        }
+    }
+
+    private ContextChunker() {
+    }
+
+    public static @NotNull List<Part> split(@NotNull CharSequence text, int maxChars) {
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("Part size must be positive: " + maxChars);
+        }
+        List<Part> parts = new ArrayList<>();
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(start + maxChars, length);
+            if (end < length) {
+                int lineEnd = lastLineSeparator(text, start, end);
+                if (lineEnd >= 0) {
+                    end = lineEnd + 1;
+                }
+            }
+            parts.add(new Part(start, end));
+            start = end;
+        }
+        return parts;
+    }
+
+    private static int lastLineSeparator(CharSequence text, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (text.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,66 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import com.intellij.util.text.CharSequenceReader;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.util.Objects;
+
+/**
+ * Clipboard content of a generated context, or of a part of it, that is not copied when it is put on the clipboard.
+ * The text is only read when a flavor is requested: the {@code text/plain} reader flavor streams the characters
+ * from the context, and the string is only created for receivers asking for the string flavor.
+ */
+public final class ContextTransferable implements Transferable {
+
+    public static final DataFlavor READER_FLAVOR = readerFlavor();
+    private static final DataFlavor[] FLAVORS = {DataFlavor.stringFlavor, READER_FLAVOR};
+
+    private final CharSequence text;
+    private String string;
+
+    public ContextTransferable(@NotNull CharSequence text) {
+        this.text = Objects.requireNonNull(text, "Text cannot be null");
+    }
+
+    private static DataFlavor readerFlavor() {
+        try {
+            return new DataFlavor("text/plain; class=java.io.Reader; charset=Unicode");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public DataFlavor[] getTransferDataFlavors() {
+        return FLAVORS.clone();
+    }
+
+    @Override
+    public boolean isDataFlavorSupported(DataFlavor flavor) {
+        return READER_FLAVOR.equals(flavor) || DataFlavor.stringFlavor.equals(flavor);
+    }
+
+    @Override
+    public @NotNull Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+        if (READER_FLAVOR.equals(flavor)) {
+            return new CharSequenceReader(text);
+        }
+        if (DataFlavor.stringFlavor.equals(flavor)) {
+            return asString();
+        }
+        throw new UnsupportedFlavorException(flavor);
+    }
+
+    /**
+     * The text as a string, created at most once. A string context is returned as is.
+     */
+    private synchronized String asString() {
+        if (string == null) {
+            string = text.toString();
+        }
+        return string;
+    }
+}
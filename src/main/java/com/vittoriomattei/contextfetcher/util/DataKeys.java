@@ -2,9 +2,11 @@ package com.vittoriomattei.contextfetcher.util;
 
 import com.intellij.openapi.actionSystem.DataKey;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.ui.panel.FileListPanel;
 
 import java.util.List;
 
 public class DataKeys {
     public static final DataKey<List<FileContextItem>> SELECTED_FILES_KEY = DataKey.create("contextfetcher.selected_files");
+    public static final DataKey<FileListPanel> FILE_LIST_PANEL_KEY = DataKey.create("contextfetcher.file_list_panel");
 }
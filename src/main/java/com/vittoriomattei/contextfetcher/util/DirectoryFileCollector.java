@@ -0,0 +1,90 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collects the files under a directory to add them to the context.
+ * Excluded roots, files ignored by the IDE or by the VCS ({@code .gitignore}) and binary files are skipped,
+ * whole ignored or excluded directories are not visited at all.
+ */
+public class DirectoryFileCollector {
+
+    private final ProjectFileIndex fileIndex;
+    private final ChangeListManager changeListManager;
+    private final FileTypeManager fileTypeManager;
+    private final int maxFiles;
+    private final int batchSize;
+
+    public DirectoryFileCollector(@NotNull Project project, int maxFiles, int batchSize) {
+        this.fileIndex = ProjectFileIndex.getInstance(project);
+        this.changeListManager = ChangeListManager.getInstance(project);
+        this.fileTypeManager = FileTypeManager.getInstance();
+        this.maxFiles = maxFiles;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Walks {@code directory} and passes the accepted files to {@code batchConsumer} in batches of at most
+     * {@code batchSize} files, so they can be added while the walk goes on.
+     * Stops after {@code maxFiles} files, cancellation is checked through {@code indicator}.
+     */
+    public @NotNull Result collect(@NotNull VirtualFile directory, @NotNull ProgressIndicator indicator,
+                                   @NotNull Consumer<List<VirtualFile>> batchConsumer) {
+        List<VirtualFile> batch = new ArrayList<>(batchSize);
+        int[] collected = {0};
+
+        boolean completed = VfsUtilCore.iterateChildrenRecursively(
+                directory,
+                // The selected directory itself is always visited, even when it is excluded
+                file -> file.equals(directory) || !isSkipped(file),
+                file -> {
+                    indicator.checkCanceled();
+                    if (file.isDirectory()) {
+                        return true;
+                    }
+                    if (collected[0] == maxFiles) {
+                        return false;
+                    }
+                    batch.add(file);
+                    collected[0]++;
+                    indicator.setText2(collected[0] + " files found: " + file.getPresentableUrl());
+                    if (batch.size() == batchSize) {
+                        batchConsumer.accept(new ArrayList<>(batch));
+                        batch.clear();
+                    }
+                    return true;
+                });
+
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(new ArrayList<>(batch));
+        }
+        return new Result(collected[0], !completed);
+    }
+
+    private boolean isSkipped(VirtualFile file) {
+        return ReadAction.compute(() -> fileTypeManager.isFileIgnored(file)
+                || fileIndex.isExcluded(file)
+                || fileIndex.isUnderIgnored(file)
+                || changeListManager.isIgnoredFile(file)
+                || !file.isDirectory() && file.getFileType().isBinary());
+    }
+
+    /**
+     * @param fileCount number of collected files
+     * @param limitReached whether the walk stopped at the file limit, leaving files out
+     */
+    public record Result(int fileCount, boolean limitReached) {
+    }
+}
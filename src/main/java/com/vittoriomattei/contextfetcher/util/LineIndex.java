@@ -0,0 +1,60 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Line start offsets of a text with normalized ({@code \n}) line separators, computed in a single pass.
+ * Lines are counted like {@link java.io.BufferedReader#lines()}: a trailing separator does not start a new line.
+ */
+public final class LineIndex {
+
+    private final int[] lineStarts;
+    private final int lineCount;
+    // End of the last line, excluding a trailing separator
+    private final int contentEnd;
+
+    private LineIndex(int[] lineStarts, int lineCount, int contentEnd) {
+        this.lineStarts = lineStarts;
+        this.lineCount = lineCount;
+        this.contentEnd = contentEnd;
+    }
+
+    public static @NotNull LineIndex of(@NotNull CharSequence text) {
+        int length = text.length();
+        int[] starts = new int[16];
+        int count = 0;
+        if (length > 0) {
+            starts[count++] = 0;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        int contentEnd = length > 0 && text.charAt(length - 1) == '\n' ? length - 1 : length;
+        return new LineIndex(starts, count, contentEnd);
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Offset of the first character of {@code line}
+     */
+    public int getLineStartOffset(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * Offset just past the last character of {@code line}, excluding its separator
+     */
+    public int getLineEndOffset(int line) {
+        return line + 1 < lineCount ? lineStarts[line + 1] - 1 : contentEnd;
+    }
+}
@@ -0,0 +1,134 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.codeStyle.MinusculeMatcher;
+import com.intellij.psi.codeStyle.NameUtil;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Finds project files whose name matches a camel-hump pattern, e.g. {@code FAS} or {@code fileAgg} for
+ * {@code FileAggregatorService.java}. Matching recent files come first, then the best matches of the index.
+ * File names are read from the index once per instance, so a query is one matcher pass over the distinct
+ * names of the project plus the lookups of the best names.
+ * Must be called in a read action, cancellation is checked through the {@link ProgressManager}.
+ */
+public class ProjectFileSearch {
+
+    private final Project project;
+    private final GlobalSearchScope scope;
+    private volatile String[] fileNames;
+
+    private record Match(String name, int degree, Collection<VirtualFile> files) {
+    }
+
+    // Best first, shorter names first among equal matches
+    private static final Comparator<Match> BEST_FIRST = Comparator.comparingInt(Match::degree).reversed()
+            .thenComparingInt(match -> match.name().length())
+            .thenComparing(Match::name);
+
+    public ProjectFileSearch(@NotNull Project project) {
+        this.project = Objects.requireNonNull(project, "Project cannot be null");
+        this.scope = GlobalSearchScope.projectScope(project);
+    }
+
+    public static @NotNull MinusculeMatcher matcher(@NotNull String query) {
+        return NameUtil.buildMatcher("*" + query, NameUtil.MatchingCaseSensitivity.NONE);
+    }
+
+    /**
+     * At most {@code limit} files matching {@code query}, recent files first and then by how well they match
+     */
+    public @NotNull List<VirtualFile> search(@NotNull String query, @NotNull List<VirtualFile> recentFiles, int limit) {
+        MinusculeMatcher matcher = matcher(query);
+        Set<VirtualFile> results = new LinkedHashSet<>();
+
+        List<VirtualFile> matchingRecent = new ArrayList<>();
+        for (VirtualFile file : recentFiles) {
+            if (file.isValid() && matcher.matches(file.getName())) {
+                matchingRecent.add(file);
+            }
+        }
+        matchingRecent.sort(Comparator.comparingInt((VirtualFile file) -> matcher.matchingDegree(file.getName())).reversed());
+        for (VirtualFile file : matchingRecent) {
+            if (results.size() == limit) {
+                return new ArrayList<>(results);
+            }
+            results.add(file);
+        }
+
+        // The index cannot be read while it is being built
+        if (DumbService.isDumb(project)) {
+            return new ArrayList<>(results);
+        }
+        for (Match match : bestNames(matcher, limit)) {
+            for (VirtualFile file : match.files()) {
+                if (results.size() == limit) {
+                    return new ArrayList<>(results);
+                }
+                results.add(file);
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * The {@code limit} best matching names that have a file in scope, best first, with their files.
+     * The index may list names without a file in scope, those never take a place. Every kept name has at least
+     * one file, so this gives at least {@code limit} files whenever the project has that many matching files,
+     * whatever the recent files already added.
+     */
+    private List<Match> bestNames(MinusculeMatcher matcher, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        // Worst of the kept names on top, so it is the one dropped by a better name
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, BEST_FIRST.reversed());
+        String[] names = fileNames();
+        for (int i = 0; i < names.length; i++) {
+            if ((i & 0xFFF) == 0) {
+                ProgressManager.checkCanceled();
+            }
+            int degree = matcher.matchingDegree(names[i]);
+            if (degree == Integer.MIN_VALUE) {
+                continue;
+            }
+            Match candidate = new Match(names[i], degree, List.of());
+            // Files are only looked up for names that would be kept
+            if (best.size() == limit && BEST_FIRST.compare(candidate, best.peek()) >= 0) {
+                continue;
+            }
+            Collection<VirtualFile> files = FilenameIndex.getVirtualFilesByName(names[i], scope);
+            if (files.isEmpty()) {
+                continue;
+            }
+            best.add(new Match(names[i], degree, files));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Match> sorted = new ArrayList<>(best);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    private String[] fileNames() {
+        String[] names = fileNames;
+        if (names == null) {
+            List<String> collected = new ArrayList<>();
+            FilenameIndex.processAllFileNames(name -> {
+                collected.add(name);
+                return true;
+            }, scope, null);
+            names = collected.toArray(String[]::new);
+            fileNames = names;
+        }
+        return names;
+    }
+}
@@ -0,0 +1,18 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Counts the tokens a language model would see for a text, without any network access.
+ */
+public interface TokenCounter {
+
+    /**
+     * Counts the tokens of {@code text} between {@code start} (inclusive) and {@code end} (exclusive)
+     */
+    int countTokens(@NotNull CharSequence text, int start, int end);
+
+    default int countTokens(@NotNull CharSequence text) {
+        return countTokens(text, 0, text.length());
+    }
+}
@@ -0,0 +1,84 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Fast token estimate modelled on the pre-tokenization of BPE tokenizers, computed in a single pass
+ * without allocations. Words are split at camel humps, long words, numbers and punctuation runs
+ * cost several tokens, and a single space before a word is merged into the word.
+ * The result is an estimate meant for staying within a context limit, not an exact count.
+ */
+public final class TokenEstimator implements TokenCounter {
+
+    // Average length of a word piece in common BPE vocabularies
+    private static final int CHARS_PER_WORD_TOKEN = 8;
+    private static final int DIGITS_PER_TOKEN = 3;
+    private static final int SYMBOLS_PER_TOKEN = 2;
+
+    @Override
+    public int countTokens(@NotNull CharSequence text, int start, int end) {
+        int tokens = 0;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            int runStart = i;
+            if (Character.isIdeographic(c)) {
+                tokens++;
+                i++;
+            } else if (Character.isLetter(c)) {
+                i++;
+                while (i < end && isWordChar(text.charAt(i))) {
+                    if (Character.isUpperCase(text.charAt(i)) && Character.isLowerCase(text.charAt(i - 1))) {
+                        tokens += ceilDiv(i - runStart, CHARS_PER_WORD_TOKEN);
+                        runStart = i;
+                    }
+                    i++;
+                }
+                tokens += ceilDiv(i - runStart, CHARS_PER_WORD_TOKEN);
+            } else if (Character.isDigit(c)) {
+                while (i < end && Character.isDigit(text.charAt(i))) {
+                    i++;
+                }
+                tokens += ceilDiv(i - runStart, DIGITS_PER_TOKEN);
+            } else if (Character.isWhitespace(c)) {
+                while (i < end && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                boolean spaceBeforeWord = c == ' ' && i - runStart == 1 && i < end && Character.isLetterOrDigit(text.charAt(i));
+                if (!spaceBeforeWord) {
+                    tokens++;
+                }
+            } else {
+                while (i < end && isSymbol(text.charAt(i))) {
+                    i++;
+                }
+                tokens += ceilDiv(i - runStart, SYMBOLS_PER_TOKEN);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Formats a token count for display, e.g. {@code ~950 tokens} or {@code ~12.3k tokens}
+     */
+    public static @NotNull String format(long tokens) {
+        if (tokens < 1000) {
+            return "~" + tokens + " tokens";
+        }
+        return String.format(Locale.ROOT, "~%.1fk tokens", tokens / 1000.0);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetter(c) && !Character.isIdeographic(c);
+    }
+
+    private static boolean isSymbol(char c) {
+        return !Character.isLetterOrDigit(c) && !Character.isWhitespace(c);
+    }
+
+    private static int ceilDiv(int length, int perToken) {
+        return (length + perToken - 1) / perToken;
+    }
+}
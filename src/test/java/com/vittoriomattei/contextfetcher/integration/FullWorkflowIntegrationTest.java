@@ -59,7 +59,7 @@ public class FullWorkflowIntegrationTest extends FileAggregatorTestBase {
         // 2. Generate context
         var filesAndSnippets = aggregatorService.getAllItems();
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(new ArrayList<>(filesAndSnippets));
 
         // 3. Verify generated context
@@ -80,7 +80,7 @@ public class FullWorkflowIntegrationTest extends FileAggregatorTestBase {
 
         // 5. Regenerate and verify both methods are present
         var updatedFiles = aggregatorService.getAllItems();
-        ContextGeneratorService updatedGenerator = new ContextGeneratorService();
+        ContextGeneratorService updatedGenerator = new ContextGeneratorService(getProject());
         String updatedContext = updatedGenerator.generateContext(new ArrayList<>(updatedFiles));
 
         assertTrue(updatedContext.contains("method1")); // Should still contain method1
@@ -0,0 +1,52 @@
+package com.vittoriomattei.contextfetcher.model;
+
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContextBudgetTest {
+
+    @Test
+    public void testParseTokens() {
+        assertEquals(ContextBudget.tokens(8000), ContextBudget.parse("8000"));
+        assertEquals(ContextBudget.tokens(32_000), ContextBudget.parse(" 32k "));
+    }
+
+    @Test
+    public void testParseBytes() {
+        assertEquals(ContextBudget.bytes(500), ContextBudget.parse("500b"));
+        assertEquals(ContextBudget.bytes(64 * 1024), ContextBudget.parse("64KB"));
+        assertEquals(ContextBudget.bytes(1024 * 1024), ContextBudget.parse("1mb"));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertNull(ContextBudget.parse(""));
+        assertNull(ContextBudget.parse("0"));
+        assertNull(ContextBudget.parse("12x"));
+        assertNull(ContextBudget.parse("kb"));
+    }
+
+    @Test
+    public void testParseOverflow() {
+        assertNull(ContextBudget.parse("9000000000000000mb"));
+        assertNull(ContextBudget.parse("9223372036854775807k"));
+        assertEquals(ContextBudget.tokens(Long.MAX_VALUE), ContextBudget.parse("9223372036854775807"));
+    }
+
+    @Test
+    public void testMeasureBytesAsUtf8() {
+        String text = "a\u00e9\u20ac\uD83D\uDE00";
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length,
+                ContextBudget.bytes(1).measure(text, new TokenEstimator()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveLimitIsRejected() {
+        ContextBudget.tokens(0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.vittoriomattei.contextfetcher.model;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LineRangeSetTest {
+
+    @Test
+    public void testOverlappingAndAdjacentRangesAreMerged() {
+        LineRangeSet set = new LineRangeSet();
+        assertTrue(set.add(new LineRange(10, 40)));
+        assertTrue(set.add(new LineRange(30, 60)));
+        assertTrue(set.add(new LineRange(61, 70)));
+
+        assertEquals(List.of(new LineRange(10, 70)), set.toList());
+    }
+
+    @Test
+    public void testBridgingRangeMergesNeighbours() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(1, 5));
+        set.add(new LineRange(20, 25));
+        set.add(new LineRange(40, 45));
+
+        assertTrue(set.add(new LineRange(6, 39)));
+        assertEquals(List.of(new LineRange(1, 45)), set.toList());
+    }
+
+    @Test
+    public void testDisjointRangesStaySortedAndSeparate() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(20, 25));
+        set.add(new LineRange(1, 5));
+
+        assertEquals(List.of(new LineRange(1, 5), new LineRange(20, 25)), set.toList());
+    }
+
+    @Test
+    public void testCoveredRangeIsRejected() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 40));
+
+        assertFalse(set.add(new LineRange(10, 40)));
+        assertFalse(set.add(new LineRange(15, 20)));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testPartialRemovalSplitsRange() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 70));
+
+        assertTrue(set.remove(new LineRange(30, 40)));
+        assertEquals(List.of(new LineRange(10, 29), new LineRange(41, 70)), set.toList());
+
+        assertTrue(set.remove(new LineRange(0, 12)));
+        assertEquals(List.of(new LineRange(13, 29), new LineRange(41, 70)), set.toList());
+    }
+
+    @Test
+    public void testRemovalAcrossSeveralRanges() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(1, 5));
+        set.add(new LineRange(10, 15));
+        set.add(new LineRange(20, 25));
+
+        assertTrue(set.remove(new LineRange(3, 22)));
+        assertEquals(List.of(new LineRange(1, 2), new LineRange(23, 25)), set.toList());
+
+        assertFalse(set.remove(new LineRange(6, 9)));
+    }
+
+    @Test
+    public void testLineCountFollowsMergesAndSplits() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 19));
+        set.add(new LineRange(15, 24));
+        assertEquals(15, set.lineCount());
+
+        set.add(new LineRange(30, 39));
+        assertEquals(25, set.lineCount());
+
+        set.remove(new LineRange(12, 33));
+        assertEquals(8, set.lineCount());
+
+        set.clear();
+        assertEquals(0, set.lineCount());
+    }
+
+    @Test
+    public void testEditsAboveAndInsideRangesMoveThem() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 20));
+        set.add(new LineRange(30, 40));
+
+        // Two lines inserted in line 5 push both ranges down
+        assertTrue(set.applyEdit(new LineEdit(5, 0, 2, false)));
+        assertEquals(List.of(new LineRange(12, 22), new LineRange(32, 42)), set.toList());
+
+        // A line break typed inside the first range grows it
+        assertTrue(set.applyEdit(new LineEdit(15, 0, 1, false)));
+        assertEquals(List.of(new LineRange(12, 23), new LineRange(33, 43)), set.toList());
+
+        // Deleting lines 25 to 28 only moves the second range
+        assertTrue(set.applyEdit(new LineEdit(25, 4, 0, false)));
+        assertEquals(List.of(new LineRange(12, 23), new LineRange(29, 39)), set.toList());
+        assertEquals(23, set.lineCount());
+
+        assertFalse(set.applyEdit(new LineEdit(50, 0, 3, false)));
+    }
+
+    @Test
+    public void testLinesInsertedAtRangeStartPushItDown() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 20));
+
+        assertTrue(set.applyEdit(new LineEdit(10, 0, 1, true)));
+        assertEquals(List.of(new LineRange(11, 21)), set.toList());
+
+        // A break typed in the middle of the first line keeps the start
+        assertTrue(set.applyEdit(new LineEdit(11, 0, 1, false)));
+        assertEquals(List.of(new LineRange(11, 22)), set.toList());
+    }
+
+    @Test
+    public void testDeletedLinesClampRanges() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 20));
+        set.add(new LineRange(24, 26));
+
+        // Lines 15 to 25 are replaced by a single line: the first range ends in it, the second starts in it
+        assertTrue(set.applyEdit(new LineEdit(15, 10, 0, false)));
+        assertEquals(List.of(new LineRange(10, 16)), set.toList());
+    }
+
+    @Test
+    public void testRangeStartingOnLastReplacedLineFollowsIt() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(6, 9));
+
+        // The line break ending line 5 is replaced by three: old line 6 is now line 8
+        assertTrue(set.applyEdit(new LineEdit(5, 1, 3, false)));
+        assertEquals(List.of(new LineRange(8, 11)), set.toList());
+    }
+
+    @Test
+    public void testStabbingQueries() {
+        LineRangeSet set = new LineRangeSet();
+        set.add(new LineRange(10, 20));
+        set.add(new LineRange(30, 40));
+
+        assertEquals(new LineRange(10, 20), set.rangeContaining(15));
+        assertEquals(new LineRange(30, 40), set.rangeContaining(30));
+        assertNull(set.rangeContaining(25));
+        assertNull(set.rangeContaining(5));
+        assertTrue(set.covers(new LineRange(32, 38)));
+        assertFalse(set.covers(new LineRange(15, 35)));
+        assertTrue(set.intersects(new LineRange(15, 35)));
+        assertTrue(set.intersects(new LineRange(0, 10)));
+        assertFalse(set.intersects(new LineRange(21, 29)));
+        assertFalse(set.intersects(new LineRange(41, 50)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.vittoriomattei.contextfetcher.services.ContextBudgetPlanner.Candidate;
+import com.vittoriomattei.contextfetcher.services.ContextBudgetPlanner.Decision;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ContextBudgetPlannerTest {
+
+    private static final long[] NO_HEADERS = {0, 0, 0};
+
+    @Test
+    public void testEverythingFits() {
+        List<Candidate> candidates = List.of(
+                new Candidate(0, 10, 5, false),
+                new Candidate(1, 10, -1, true));
+
+        assertArrayEquals(new Decision[]{Decision.FULL, Decision.FULL},
+                ContextBudgetPlanner.plan(candidates, NO_HEADERS, 0, 20));
+    }
+
+    @Test
+    public void testLargestSavingIsExcerptedFirst() {
+        List<Candidate> candidates = List.of(
+                new Candidate(0, 30, 20, false),
+                new Candidate(1, 100, 10, false),
+                new Candidate(2, 10, -1, true));
+
+        assertArrayEquals(new Decision[]{Decision.FULL, Decision.EXCERPT, Decision.FULL},
+                ContextBudgetPlanner.plan(candidates, NO_HEADERS, 0, 60));
+    }
+
+    @Test
+    public void testWholeFilesAreDroppedBeforeSnippets() {
+        List<Candidate> candidates = List.of(
+                new Candidate(0, 40, -1, true),
+                new Candidate(1, 40, -1, false),
+                new Candidate(2, 40, -1, true));
+
+        assertArrayEquals(new Decision[]{Decision.FULL, Decision.DROPPED, Decision.FULL},
+                ContextBudgetPlanner.plan(candidates, NO_HEADERS, 0, 90));
+    }
+
+    @Test
+    public void testDroppedItemsAreRestoredWhenTheyFit() {
+        // Dropping the large file leaves room for the small one dropped before it
+        List<Candidate> candidates = List.of(
+                new Candidate(0, 100, -1, false),
+                new Candidate(1, 10, -1, false));
+
+        assertArrayEquals(new Decision[]{Decision.DROPPED, Decision.FULL},
+                ContextBudgetPlanner.plan(candidates, NO_HEADERS, 0, 50));
+    }
+
+    @Test
+    public void testHeaderIsPaidOncePerFile() {
+        List<Candidate> candidates = List.of(
+                new Candidate(0, 10, -1, true),
+                new Candidate(0, 10, -1, true),
+                new Candidate(1, 10, -1, true));
+
+        assertArrayEquals(new Decision[]{Decision.FULL, Decision.FULL, Decision.DROPPED},
+                ContextBudgetPlanner.plan(candidates, new long[]{5, 5}, 0, 30));
+    }
+}
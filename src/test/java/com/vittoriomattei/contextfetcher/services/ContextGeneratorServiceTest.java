@@ -1,16 +1,27 @@
 package com.vittoriomattei.contextfetcher.services;
 
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.ContextBudget;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
 import com.vittoriomattei.contextfetcher.model.LineRange;
 import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import com.vittoriomattei.contextfetcher.util.TokenCounter;
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
@@ -57,7 +68,7 @@ public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
         files.add(FileContextItem.wholeFile(javaFile));
         files.add(FileContextItem.wholeFile(textFile));
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(files);
 
         Assert.assertNotNull(context);
@@ -75,7 +86,7 @@ public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
         files.add(FileContextItem.snippet(javaFile, new LineRange(2, 4)));
         files.add(FileContextItem.snippet(javaFile, new LineRange(9, 11)));
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(files);
 
         Assert.assertNotNull(context);
@@ -94,7 +105,7 @@ public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
         files.add(FileContextItem.snippet(javaFile, new LineRange(0, 2)));
         files.add(FileContextItem.wholeFile(textFile));
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(files);
 
         Assert.assertTrue(context.contains("### L1-3")); // Snippet format
@@ -105,7 +116,7 @@ public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
     public void testGenerateContextWithEmptyFiles() {
         List<FileContextItem> files = new ArrayList<>();
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(files);
 
         Assert.assertNotNull(context);
@@ -118,7 +129,7 @@ public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
         List<FileContextItem> files = new ArrayList<>();
         files.add(FileContextItem.snippet(javaFile, new LineRange(5, 7)));
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(files);
 
         Assert.assertTrue(context.contains("public Example(String name)"));
@@ -135,11 +146,151 @@ public class ContextGeneratorServiceTest extends FileAggregatorTestBase {
         files.add(FileContextItem.snippet(javaFile, new LineRange(100, 200))); // Beyond file length
         files.add(FileContextItem.snippet(javaFile, new LineRange(1, 3)));     // Valid range
 
-        ContextGeneratorService generator = new ContextGeneratorService();
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
         String context = generator.generateContext(files);
 
         // Should handle gracefully without throwing exceptions
         Assert.assertNotNull(context);
         Assert.assertTrue(context.contains("# --- Code context ---"));
     }
+
+    @Test
+    public void testStreamingOutputMatchesStringOutput() throws IOException {
+        List<FileContextItem> files = new ArrayList<>();
+        files.add(FileContextItem.snippet(javaFile, new LineRange(5, 7)));
+        files.add(FileContextItem.wholeFile(textFile));
+
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
+        StringWriter writer = new StringWriter();
+        String status = generator.generateContext(files, writer);
+
+        Assert.assertEquals("Context generated: 1 file(s), 1 snippet(s)", status);
+        Assert.assertEquals("", generator.getCurrentContext()); // Streaming does not publish
+
+        Assert.assertEquals(generator.generateContext(files), writer.toString());
+    }
+
+    @Test
+    public void testStreamingReusesSectionsOfPreviousGeneration() throws IOException {
+        List<FileContextItem> files = new ArrayList<>();
+        files.add(FileContextItem.snippet(javaFile, new LineRange(5, 7)));
+        files.add(FileContextItem.wholeFile(textFile));
+
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
+        String context = generator.generateContext(files);
+
+        Document document = FileDocumentManager.getInstance().getDocument(textFile);
+        Assert.assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.setText("# Changed Title"));
+
+        StringWriter writer = new StringWriter();
+        generator.generateContext(files, writer);
+
+        Assert.assertTrue(writer.toString().contains("# Changed Title"));
+        Assert.assertEquals(context, generator.getCurrentContext()); // Streaming does not publish
+        Assert.assertEquals(new ContextGeneratorService(getProject()).generateContext(files), writer.toString());
+    }
+
+    @Test
+    public void testUnsavedDocumentChangesAreUsed() {
+        Document document = FileDocumentManager.getInstance().getDocument(textFile);
+        Assert.assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.setText("# Unsaved Title\n\nEdited in the editor."));
+
+        List<FileContextItem> files = new ArrayList<>();
+        files.add(FileContextItem.wholeFile(textFile));
+
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
+        String context = generator.generateContext(files);
+
+        Assert.assertTrue(context.contains("# Unsaved Title"));
+        Assert.assertFalse(context.contains("# Project Title"));
+    }
+
+    @Test
+    public void testParallelGenerationMatchesSequentialOrder() {
+        List<FileContextItem> files = new ArrayList<>();
+        files.add(FileContextItem.wholeFile(textFile));
+        files.add(FileContextItem.snippet(javaFile, new LineRange(2, 4)));
+        files.add(FileContextItem.snippet(javaFile, new LineRange(9, 11)));
+
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
+        String sequential = generator.generateContext(files);
+        String parallel = generator.generateContext(files, new EmptyProgressIndicator());
+
+        Assert.assertEquals(sequential, parallel);
+        Assert.assertTrue(parallel.indexOf(textFile.getPresentableUrl()) < parallel.indexOf(javaFile.getPresentableUrl()));
+        Assert.assertEquals(parallel, generator.getCurrentContext());
+    }
+
+    @Test
+    public void testRegenerationMatchesFreshGeneration() {
+        List<FileContextItem> files = new ArrayList<>();
+        files.add(FileContextItem.wholeFile(textFile));
+        files.add(FileContextItem.snippet(javaFile, new LineRange(2, 4)));
+
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
+        generator.generateContext(files);
+
+        Document document = FileDocumentManager.getInstance().getDocument(textFile);
+        Assert.assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.setText("# Changed Title"));
+        files.add(FileContextItem.snippet(javaFile, new LineRange(9, 11)));
+        files.remove(1);
+
+        String regenerated = generator.generateContext(files);
+
+        Assert.assertEquals(new ContextGeneratorService(getProject()).generateContext(files), regenerated);
+        Assert.assertTrue(regenerated.contains("# Changed Title"));
+        Assert.assertFalse(regenerated.contains("### L3-5"));
+        Assert.assertEquals(regenerated, generator.generateContext(files, new EmptyProgressIndicator()));
+    }
+
+    @Test
+    public void testBudgetedGenerationFitsBudget() {
+        VirtualFile largeFile = createTestFile("budget_" + System.currentTimeMillis() + "/Large.txt",
+                "line of the large file\n".repeat(200));
+        List<FileContextItem> files = new ArrayList<>();
+        files.add(FileContextItem.snippet(javaFile, new LineRange(2, 4)));
+        files.add(FileContextItem.wholeFile(largeFile));
+
+        ContextGeneratorService generator = new ContextGeneratorService(getProject());
+        String unlimited = generator.generateContext(files, ContextBudget.bytes(1_000_000), new EmptyProgressIndicator());
+        Assert.assertEquals(new ContextGeneratorService(getProject()).generateContext(files), unlimited);
+
+        ContextBudget budget = ContextBudget.bytes(2000);
+        String context = generator.generateContext(files, budget, new EmptyProgressIndicator());
+
+        Assert.assertTrue(context.getBytes(StandardCharsets.UTF_8).length <= budget.limit());
+        Assert.assertTrue(context.contains("... 150 lines omitted ..."));
+        Assert.assertTrue(context.contains("### L3-5"));
+        Assert.assertTrue(generator.getStatus().contains("1 shortened, 0 dropped"));
+    }
+
+    @Test
+    public void testBudgetedGenerationUsesCachedCounts() {
+        VirtualFile largeFile = createTestFile("budget_" + System.currentTimeMillis() + "/Large.txt",
+                "line of the large file\n".repeat(200));
+        FileAggregatorServiceImpl fileService = new FileAggregatorServiceImpl();
+        fileService.addSnippet(javaFile, new LineRange(2, 4));
+        fileService.addFile(largeFile);
+
+        TokenEstimator estimator = new TokenEstimator();
+        AtomicInteger longestCount = new AtomicInteger();
+        TokenCounter tokenCounter = (text, start, end) -> {
+            longestCount.accumulateAndGet(end - start, Math::max);
+            return estimator.countTokens(text, start, end);
+        };
+        TokenCountService tokenCountService = new TokenCountService(fileService, tokenCounter);
+        tokenCountService.recount();
+        longestCount.set(0);
+
+        List<FileContextItem> files = fileService.getSortedItems();
+        ContextGeneratorService generator = new ContextGeneratorService(tokenCountService);
+        String context = generator.generateContext(files, ContextBudget.tokens(1_000_000), new EmptyProgressIndicator());
+
+        Assert.assertEquals(new ContextGeneratorService(getProject()).generateContext(files), context);
+        // Only the text around the items was measured, the large file was not tokenized again
+        Assert.assertTrue(longestCount.get() < "line of the large file\n".length() * 200);
+    }
 }
\ No newline at end of file
@@ -2,12 +2,18 @@ package com.vittoriomattei.contextfetcher.services;
 
 import com.intellij.openapi.vfs.VirtualFile;
 import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineEdit;
 import com.vittoriomattei.contextfetcher.model.LineRange;
 import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class FileAggregatorServiceTest extends FileAggregatorTestBase {
 
@@ -76,6 +82,32 @@ public class FileAggregatorServiceTest extends FileAggregatorTestBase {
         assertFalse(items.getFirst().isSnippet());
     }
 
+    @Test
+    public void testOverlappingSnippetsAreMerged() {
+        assertTrue(service.addSnippet(testFile1, new LineRange(10, 40)));
+        assertTrue(service.addSnippet(testFile1, new LineRange(30, 60)));
+        assertTrue(service.addSnippet(testFile1, new LineRange(61, 70)));
+        assertFalse(service.addSnippet(testFile1, new LineRange(20, 30)));
+
+        List<FileContextItem> items = service.getItemsForFile(testFile1);
+        assertEquals(1, items.size());
+        assertEquals(new LineRange(10, 70), items.getFirst().getLineRange());
+        assertEquals(1, service.getSnippetCount());
+    }
+
+    @Test
+    public void testPartialSnippetRemovalSplitsRange() {
+        service.addSnippet(testFile1, new LineRange(10, 70));
+
+        assertTrue(service.removeSnippet(testFile1, new LineRange(30, 40)));
+
+        List<FileContextItem> items = service.getItemsForFile(testFile1);
+        assertEquals(2, items.size());
+        assertEquals(new LineRange(10, 29), items.get(0).getLineRange());
+        assertEquals(new LineRange(41, 70), items.get(1).getLineRange());
+        assertEquals(2, service.getSnippetCount());
+    }
+
     @Test
     public void testRemoveFile() {
         service.addFile(testFile1);
@@ -130,6 +162,26 @@ public class FileAggregatorServiceTest extends FileAggregatorTestBase {
         assertFalse(service.containsFile(testFile2));
     }
 
+    @Test
+    public void testCountsFollowMutations() {
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(1, 5));
+        service.addSnippet(testFile2, new LineRange(10, 15));
+
+        assertEquals(2, service.getFileCount());
+        assertEquals(2, service.getSnippetCount());
+
+        service.removeFiles(List.of(FileContextItem.wholeFile(testFile1), FileContextItem.snippet(testFile2, new LineRange(1, 5))));
+
+        assertEquals(1, service.getFileCount());
+        assertEquals(1, service.getSnippetCount());
+        assertFalse(service.containsFile(testFile1));
+
+        service.removeFile(testFile2);
+        assertEquals(0, service.getFileCount());
+        assertEquals(0, service.getSnippetCount());
+    }
+
     @Test
     public void testChangeNotifications() throws InterruptedException {
         TestChangeListener listener = new TestChangeListener(3);
@@ -143,6 +195,406 @@ public class FileAggregatorServiceTest extends FileAggregatorTestBase {
         assertEquals(3, listener.getEventCount());
     }
 
+    @Test
+    public void testChangeEventsCarryDelta() {
+        List<FilesChangeEvent> events = new ArrayList<>();
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(1, 5));
+        service.addSnippet(testFile2, new LineRange(4, 8));
+        service.clear();
+
+        assertEquals(4, events.size());
+        assertEquals(List.of(FileContextItem.wholeFile(testFile1)), events.get(0).added());
+        assertEquals(List.of(FileContextItem.snippet(testFile2, new LineRange(1, 5))), events.get(1).added());
+
+        FilesChangeEvent merge = events.get(2);
+        assertTrue(merge.added().isEmpty());
+        assertEquals(List.of(new FilesChangeEvent.Replacement(
+                FileContextItem.snippet(testFile2, new LineRange(1, 5)),
+                FileContextItem.snippet(testFile2, new LineRange(1, 8)))), merge.replaced());
+
+        assertEquals(2, events.get(3).removed().size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i + 1, events.get(i).version());
+        }
+        assertEquals(4, service.getVersion());
+    }
+
+    @Test
+    public void testRemovingSelectedItemsReportsOneEvent() {
+        List<FilesChangeEvent> events = new ArrayList<>();
+        service.addSnippet(testFile1, new LineRange(1, 10));
+        service.addFile(testFile2);
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        service.removeFiles(List.of(
+                FileContextItem.snippet(testFile1, new LineRange(4, 5)),
+                FileContextItem.wholeFile(testFile2)));
+
+        // Splitting a snippet in two is reported as a removal and two additions
+        assertEquals(1, events.size());
+        assertEquals(List.of(
+                FileContextItem.snippet(testFile1, new LineRange(1, 10)),
+                FileContextItem.wholeFile(testFile2)), events.get(0).removed());
+        assertEquals(List.of(
+                FileContextItem.snippet(testFile1, new LineRange(1, 3)),
+                FileContextItem.snippet(testFile1, new LineRange(6, 10))), events.get(0).added());
+        assertTrue(events.get(0).replaced().isEmpty());
+    }
+
+    @Test
+    public void testMergedEventsKeepNetChanges() {
+        FileContextItem first = FileContextItem.snippet(testFile1, new LineRange(1, 2));
+        FileContextItem grown = FileContextItem.snippet(testFile1, new LineRange(1, 4));
+        FileContextItem grownAgain = FileContextItem.snippet(testFile1, new LineRange(1, 6));
+        FileContextItem transientItem = FileContextItem.wholeFile(testFile2);
+
+        FilesChangeEvent merged = FilesChangeEvent.merge(List.of(
+                new FilesChangeEvent(1, List.of(), List.of(), List.of(new FilesChangeEvent.Replacement(first, grown))),
+                new FilesChangeEvent(2, List.of(transientItem), List.of(), List.of()),
+                new FilesChangeEvent(3, List.of(), List.of(), List.of(new FilesChangeEvent.Replacement(grown, grownAgain))),
+                new FilesChangeEvent(4, List.of(), List.of(transientItem), List.of())));
+
+        assertEquals(4, merged.version());
+        assertTrue(merged.added().isEmpty());
+        assertTrue(merged.removed().isEmpty());
+        assertEquals(List.of(new FilesChangeEvent.Replacement(first, grownAgain)), merged.replaced());
+    }
+
+    @Test
+    public void testBackgroundListenerReceivesMergedEvents() throws InterruptedException {
+        List<VirtualFile> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            files.add(createTestFile("burst/File" + i + ".txt", "content"));
+        }
+        List<FilesChangeEvent> events = new CopyOnWriteArrayList<>();
+        CountDownLatch lastEvent = new CountDownLatch(1);
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                events.add(event);
+                if (event.version() == files.size()) {
+                    lastEvent.countDown();
+                }
+            }
+        }, FilesChangeListener.Delivery.BACKGROUND);
+
+        for (VirtualFile file : files) {
+            service.addFile(file);
+        }
+
+        assertTrue(lastEvent.await(5, TimeUnit.SECONDS));
+        assertEquals(files.size(), events.stream().mapToInt(event -> event.added().size()).sum());
+        assertTrue(events.size() <= files.size());
+    }
+
+    @Test
+    public void testBatchAppliesMutationsWithOneEvent() {
+        service.addFile(testFile2);
+        TestChangeListener listener = new TestChangeListener(1);
+        service.addChangeListener(listener);
+
+        int applied = service.batch(builder -> builder
+                .addSnippet(testFile1, new LineRange(1, 3))
+                .addSnippet(testFile1, new LineRange(10, 12))
+                .addSnippet(testFile1, new LineRange(2, 4))
+                .removeSnippet(testFile1, new LineRange(10, 12))
+                .removeFile(testFile2)
+                .addSnippet(testFile2, new LineRange(0, 0)));
+
+        assertEquals(6, applied);
+        assertEquals(1, listener.getEventCount());
+        assertEquals(List.of(FileContextItem.snippet(testFile1, new LineRange(1, 4))), service.getItemsForFile(testFile1));
+        assertEquals(List.of(FileContextItem.snippet(testFile2, new LineRange(0, 0))), service.getItemsForFile(testFile2));
+        assertEquals(2, service.getSnippetCount());
+    }
+
+    @Test
+    public void testBatchSkipsInvalidAndNoOpMutations() {
+        service.addFile(testFile1);
+        TestChangeListener listener = new TestChangeListener(1);
+        service.addChangeListener(listener);
+
+        int applied = service.batch(builder -> builder
+                .addSnippet(testFile1, new LineRange(1, 3))
+                .addSnippet(testFile2, new LineRange(5, 1))
+                .removeSnippet(testFile2, new LineRange(1, 3)));
+
+        assertEquals(0, applied);
+        assertEquals(0, listener.getEventCount());
+        assertEquals(1, service.getFileCount());
+        assertEquals(0, service.getSnippetCount());
+    }
+
+    @Test
+    public void testSortedSnapshotIsSharedUntilChange() {
+        service.addFile(testFile2);
+        service.addFile(testFile1);
+
+        List<FileContextItem> sorted = service.getSortedItems();
+        assertSame(sorted, service.getSortedItems());
+        assertEquals(List.of(FileContextItem.wholeFile(testFile1), FileContextItem.wholeFile(testFile2)), sorted);
+        assertThrows(UnsupportedOperationException.class, () -> sorted.add(FileContextItem.wholeFile(testFile1)));
+
+        service.removeFile(testFile1);
+
+        FileAggregatorService.SortedSnapshot snapshot = service.getSortedSnapshot();
+        assertNotSame(sorted, snapshot.items());
+        assertEquals(service.getVersion(), snapshot.version());
+        assertEquals(List.of(FileContextItem.wholeFile(testFile2)), snapshot.items());
+    }
+
+    @Test
+    public void testStatisticsFollowMutations() {
+        assertTrue(service.getStatistics().isEmpty());
+
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(0, 9));
+        service.addSnippet(testFile2, new LineRange(20, 24));
+
+        FileAggregatorService.ContextStatistics statistics = service.getStatistics();
+        assertSame(statistics, service.getStatistics());
+        assertEquals(service.getVersion(), statistics.version());
+        assertEquals(2, statistics.fileCount());
+        assertEquals(1, statistics.wholeFileCount());
+        assertEquals(2, statistics.snippetCount());
+        assertEquals(15, statistics.snippetLineCount());
+        assertEquals(testFile1.getLength(), statistics.wholeFileBytes());
+
+        service.removeSnippet(testFile2, new LineRange(5, 9));
+        assertEquals(10, service.getStatistics().snippetLineCount());
+
+        service.batch(builder -> builder.removeFile(testFile1).removeFile(testFile2).addFile(testFile2));
+        statistics = service.getStatistics();
+        assertEquals(1, statistics.wholeFileCount());
+        assertEquals(0, statistics.snippetCount());
+        assertEquals(0, statistics.snippetLineCount());
+        assertEquals(testFile2.getLength(), statistics.wholeFileBytes());
+
+        service.clear();
+        assertTrue(service.getStatistics().isEmpty());
+        assertEquals(0, service.getStatistics().wholeFileBytes());
+    }
+
+    @Test
+    public void testStateRestoresItemsAndDropsMissingFiles() {
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(0, 1));
+        service.addSnippet(testFile2, new LineRange(5, 7));
+
+        PersistedContext.State state = service.getState();
+        assertEquals("", state.files.get(testFile1.getUrl()));
+        assertEquals("0-1,5-7", state.files.get(testFile2.getUrl()));
+        state.files.put(testFile1.getUrl() + ".missing", "");
+
+        FileAggregatorServiceImpl restored = new FileAggregatorServiceImpl();
+        TestChangeListener listener = new TestChangeListener(2);
+        restored.addChangeListener(listener);
+        restored.loadState(state, Runnable::run);
+
+        // The reset to the loaded profiles, then one batch with the restored files
+        assertEquals(2, listener.getEventCount());
+        assertEquals(service.getSortedItems(), restored.getSortedItems());
+        assertFalse(restored.getState().files.containsKey(testFile1.getUrl() + ".missing"));
+    }
+
+    @Test
+    public void testClearStopsPendingRestore() {
+        service.addFile(testFile1);
+        service.addFile(testFile2);
+        PersistedContext.State state = service.getState();
+
+        FileAggregatorServiceImpl restored = new FileAggregatorServiceImpl();
+        List<Runnable> tasks = new ArrayList<>();
+        restored.loadState(state, tasks::add);
+        // Files not restored yet are saved back unchanged
+        assertEquals(state.files.keySet(), restored.getState().files.keySet());
+
+        restored.clear();
+        tasks.forEach(Runnable::run);
+
+        assertEquals(0, restored.getFileCount());
+        assertTrue(restored.getState().files.isEmpty());
+    }
+
+    @Test
+    public void testCopiedProfilesAreIndependent() {
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(0, 9));
+
+        assertTrue(service.copyProfile(FileAggregatorService.DEFAULT_PROFILE, "refactor"));
+        assertFalse(service.copyProfile(FileAggregatorService.DEFAULT_PROFILE, "refactor"));
+        List<FileContextItem> defaultItems = service.getSortedItems();
+
+        List<FilesChangeEvent> events = new ArrayList<>();
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                events.add(event);
+            }
+        });
+        assertTrue(service.switchProfile("refactor"));
+        assertEquals("refactor", service.getActiveProfile());
+        assertTrue(events.get(0).reset());
+        assertEquals(defaultItems, service.getSortedItems());
+
+        // The shared snippet entry is copied before it changes, so the default profile keeps its range
+        service.removeSnippet(testFile2, new LineRange(5, 9));
+        service.removeFile(testFile1);
+        assertEquals(List.of(FileContextItem.snippet(testFile2, new LineRange(0, 4))), service.getSortedItems());
+        assertEquals(5, service.getStatistics().snippetLineCount());
+
+        assertFalse(service.deleteProfile("refactor"));
+        assertTrue(service.switchProfile(FileAggregatorService.DEFAULT_PROFILE));
+        assertEquals(defaultItems, service.getSortedItems());
+        assertEquals(10, service.getStatistics().snippetLineCount());
+
+        assertTrue(service.deleteProfile("refactor"));
+        assertEquals(List.of(FileAggregatorService.DEFAULT_PROFILE), service.getProfileNames());
+        assertFalse(service.switchProfile("refactor"));
+    }
+
+    @Test
+    public void testRejectedChangesKeepEntriesShared() {
+        service.addSnippet(testFile1, new LineRange(0, 9));
+        service.copyProfile(FileAggregatorService.DEFAULT_PROFILE, "other");
+        service.switchProfile("other");
+        FileEntry shared = service.entryOf(FileAggregatorService.DEFAULT_PROFILE, testFile1);
+
+        // Already covered, and nothing to remove
+        assertFalse(service.addSnippet(testFile1, new LineRange(2, 5)));
+        assertEquals(0, service.batch(builder -> {
+            builder.addSnippet(testFile1, new LineRange(3, 4));
+            builder.removeSnippet(testFile1, new LineRange(20, 30));
+        }));
+        assertSame(shared, service.entryOf("other", testFile1));
+
+        assertTrue(service.addSnippet(testFile1, new LineRange(20, 30)));
+        assertNotSame(shared, service.entryOf("other", testFile1));
+        assertEquals(List.of(new LineRange(0, 9)), shared.snippetRanges());
+    }
+
+    @Test
+    public void testLineEditsMoveSnippetsInEveryProfile() {
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(10, 20));
+        service.copyProfile(FileAggregatorService.DEFAULT_PROFILE, "other");
+
+        List<FilesChangeEvent> events = new ArrayList<>();
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        assertFalse(service.applyLineEdit(testFile1, new LineEdit(0, 0, 3, true)));
+        assertTrue(service.applyLineEdit(testFile2, new LineEdit(2, 0, 3, false)));
+
+        FileContextItem moved = FileContextItem.snippet(testFile2, new LineRange(13, 23));
+        assertEquals(1, events.size());
+        assertEquals(List.of(new FilesChangeEvent.Replacement(
+                FileContextItem.snippet(testFile2, new LineRange(10, 20)), moved)), events.get(0).replaced());
+
+        service.switchProfile("other");
+        assertEquals(List.of(moved), service.getItemsForFile(testFile2));
+    }
+
+    @Test
+    public void testFileSystemChangesArePublishedOnce() {
+        service.addFile(testFile1);
+        service.addSnippet(testFile2, new LineRange(0, 1));
+        service.copyProfile(FileAggregatorService.DEFAULT_PROFILE, "other");
+
+        List<FilesChangeEvent> events = new ArrayList<>();
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                events.add(event);
+            }
+        });
+
+        assertEquals(2, service.applyFileSystemChanges(List.of(testFile1, testFile2), List.of()));
+        assertEquals(1, events.size());
+        assertEquals(2, events.get(0).removed().size());
+        assertEquals(0, service.getFileCount());
+
+        service.switchProfile("other");
+        assertEquals(0, service.getFileCount());
+
+        service.addFile(testFile1);
+        events.clear();
+        assertEquals(0, service.applyFileSystemChanges(List.of(), List.of(testFile2)));
+        assertEquals(1, service.applyFileSystemChanges(List.of(), List.of(testFile1)));
+        assertFalse(events.get(0).reset());
+        assertEquals(List.of(FileContextItem.wholeFile(testFile1)), events.get(0).relocated());
+        assertTrue(events.get(0).added().isEmpty());
+        assertTrue(events.get(0).removed().isEmpty());
+    }
+
+    @Test
+    public void testResetAbsorbsMergedEvents() {
+        FileContextItem item = FileContextItem.wholeFile(testFile1);
+        FilesChangeEvent merged = FilesChangeEvent.merge(List.of(
+                new FilesChangeEvent(1, List.of(item), List.of(), List.of()),
+                FilesChangeEvent.reset(2),
+                new FilesChangeEvent(3, List.of(), List.of(item), List.of())));
+
+        assertTrue(merged.reset());
+        assertFalse(merged.isEmpty());
+        assertEquals(3, merged.version());
+    }
+
+    @Test
+    public void testMergedRelocationsKeepOnlySurvivingItems() {
+        FileContextItem kept = FileContextItem.wholeFile(testFile1);
+        FileContextItem removed = FileContextItem.wholeFile(testFile2);
+        FilesChangeEvent merged = FilesChangeEvent.merge(List.of(
+                new FilesChangeEvent(1, List.of(), List.of(), List.of(), List.of(kept, removed), false),
+                new FilesChangeEvent(2, List.of(), List.of(removed), List.of()),
+                new FilesChangeEvent(3, List.of(), List.of(), List.of(), List.of(kept), false)));
+
+        assertEquals(List.of(kept), merged.relocated());
+        assertEquals(List.of(removed), merged.removed());
+        assertFalse(merged.reset());
+    }
+
     @Test
     public void testNullArgumentsThrowExceptions() {
         assertThrows(IllegalArgumentException.class, () -> service.addFile(null));
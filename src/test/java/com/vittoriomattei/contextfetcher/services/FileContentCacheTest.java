@@ -0,0 +1,75 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileContentCacheTest extends FileAggregatorTestBase {
+
+    private VirtualFile testFile1;
+    private VirtualFile testFile2;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        String uniqueDir = "testRun_" + System.currentTimeMillis();
+        testFile1 = createTestFile(uniqueDir + "/first.txt", "first");
+        testFile2 = createTestFile(uniqueDir + "/second.txt", "second");
+    }
+
+    @Test
+    public void testUnchangedFileIsServedFromCache() throws Exception {
+        FileContentCache cache = new FileContentCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("first", cache.getOrLoad(testFile1, () -> { loads.incrementAndGet(); return "first"; }));
+        assertEquals("first", cache.getOrLoad(testFile1, () -> { loads.incrementAndGet(); return "first"; }));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getStatistics().hits());
+        assertEquals(1, cache.getStatistics().misses());
+    }
+
+    @Test
+    public void testModifiedFileIsReloaded() throws Exception {
+        FileContentCache cache = new FileContentCache();
+        cache.getOrLoad(testFile1, () -> VfsUtil.loadText(testFile1));
+
+        WriteAction.runAndWait(() -> VfsUtil.saveText(testFile1, "changed"));
+
+        assertEquals("changed", cache.getOrLoad(testFile1, () -> VfsUtil.loadText(testFile1)));
+        assertEquals(2, cache.getStatistics().misses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        // Room for a single 5 character entry
+        FileContentCache cache = new FileContentCache(5 * Character.BYTES);
+
+        cache.getOrLoad(testFile1, () -> "aaaaa");
+        cache.getOrLoad(testFile2, () -> "bbbbb");
+
+        assertEquals(1, cache.getStatistics().entries());
+        assertEquals(5L * Character.BYTES, cache.getStatistics().bytes());
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.getOrLoad(testFile1, () -> { loads.incrementAndGet(); return "aaaaa"; });
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testInvalidateDropsEntry() throws Exception {
+        FileContentCache cache = new FileContentCache();
+        cache.getOrLoad(testFile1, () -> "first");
+
+        cache.invalidate(testFile1);
+
+        assertEquals(0, cache.getStatistics().entries());
+        assertEquals(0, cache.getStatistics().bytes());
+    }
+}
@@ -0,0 +1,35 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PersistedContextTest {
+
+    @Test
+    public void testRangesRoundTrip() {
+        List<LineRange> ranges = List.of(new LineRange(0, 9), new LineRange(12, 12), new LineRange(20, 45));
+
+        String packed = PersistedContext.pack(ranges);
+
+        assertEquals("0-9,12,20-45", packed);
+        assertEquals(ranges, PersistedContext.unpack(packed));
+    }
+
+    @Test
+    public void testEmptyStringMeansWholeFile() {
+        assertEquals("", PersistedContext.pack(List.of()));
+        assertEquals(List.of(), PersistedContext.unpack(""));
+    }
+
+    @Test
+    public void testMalformedRangesAreRejected() {
+        assertNull(PersistedContext.unpack("10-x"));
+        assertNull(PersistedContext.unpack("10-5"));
+        assertNull(PersistedContext.unpack("-3"));
+        assertNull(PersistedContext.unpack("1,,2"));
+    }
+}
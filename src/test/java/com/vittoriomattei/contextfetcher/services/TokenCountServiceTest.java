@@ -0,0 +1,135 @@
+package com.vittoriomattei.contextfetcher.services;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import com.vittoriomattei.contextfetcher.util.TokenCounter;
+import com.vittoriomattei.contextfetcher.util.TokenEstimator;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenCountServiceTest extends FileAggregatorTestBase {
+
+    private FileAggregatorServiceImpl fileService;
+    private CountingTokenCounter tokenCounter;
+    private TokenCountService tokenCountService;
+    private VirtualFile testFile1;
+    private VirtualFile testFile2;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        fileService = new FileAggregatorServiceImpl();
+        tokenCounter = new CountingTokenCounter();
+        tokenCountService = new TokenCountService(fileService, tokenCounter);
+
+        String uniqueDir = "testRun_" + System.currentTimeMillis();
+        testFile1 = createTestFile(uniqueDir + "/first.txt", "one two three\nfour five\nsix");
+        testFile2 = createTestFile(uniqueDir + "/second.txt", "seven eight");
+    }
+
+    @Test
+    public void testTotalIsSumOfItemCounts() {
+        fileService.addFile(testFile1);
+        fileService.addSnippet(testFile2, new LineRange(0, 0));
+        tokenCountService.recount();
+
+        int first = tokenCountService.getTokenCount(FileContextItem.wholeFile(testFile1));
+        int second = tokenCountService.getTokenCount(FileContextItem.snippet(testFile2, new LineRange(0, 0)));
+        assertEquals(8, first);
+        assertEquals(2, second);
+        assertEquals(first + second, tokenCountService.getTotalTokens());
+    }
+
+    @Test
+    public void testUnchangedItemsAreNotCountedAgain() {
+        fileService.addFile(testFile1);
+        tokenCountService.recount();
+        fileService.addFile(testFile2);
+        tokenCountService.recount();
+
+        assertEquals(2, tokenCounter.calls.get());
+    }
+
+    @Test
+    public void testRemovedItemsAreSubtracted() {
+        fileService.addFile(testFile1);
+        fileService.addFile(testFile2);
+        tokenCountService.recount();
+
+        fileService.removeFile(testFile1);
+        tokenCountService.recount();
+
+        assertEquals(TokenCountService.UNKNOWN, tokenCountService.getTokenCount(FileContextItem.wholeFile(testFile1)));
+        assertEquals(2, tokenCountService.getTotalTokens());
+    }
+
+    @Test
+    public void testChangedDocumentIsCountedAgain() {
+        fileService.addSnippet(testFile1, new LineRange(1, 2));
+        tokenCountService.recount();
+        assertEquals(4, tokenCountService.getTotalTokens());
+
+        Document document = FileDocumentManager.getInstance().getDocument(testFile1);
+        assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.setText("one\ntwo"));
+        tokenCountService.recount();
+
+        assertEquals(1, tokenCountService.getTotalTokens());
+    }
+
+    @Test
+    public void testChangeEventsAreAppliedAsDelta() {
+        FileContextItem wholeFile = FileContextItem.wholeFile(testFile1);
+        FileContextItem snippet = FileContextItem.snippet(testFile1, new LineRange(0, 0));
+        FileContextItem grownSnippet = FileContextItem.snippet(testFile1, new LineRange(0, 1));
+        tokenCountService.applyChanges(new FilesChangeEvent(1, List.of(wholeFile, snippet), List.of(), List.of()));
+        assertEquals(2, tokenCounter.calls.get());
+        assertEquals(11, tokenCountService.getTotalTokens());
+
+        tokenCountService.applyChanges(new FilesChangeEvent(2, List.of(), List.of(wholeFile),
+                List.of(new FilesChangeEvent.Replacement(snippet, grownSnippet))));
+
+        assertEquals(3, tokenCounter.calls.get());
+        assertEquals(TokenCountService.UNKNOWN, tokenCountService.getTokenCount(wholeFile));
+        assertEquals(TokenCountService.UNKNOWN, tokenCountService.getTokenCount(snippet));
+        assertEquals(6, tokenCountService.getTotalTokens());
+    }
+
+    @Test
+    public void testContentChangeRecountsOnlyChangedFile() {
+        fileService.addFile(testFile1);
+        fileService.addFile(testFile2);
+        tokenCountService.recount();
+        assertEquals(2, tokenCounter.calls.get());
+
+        Document document = FileDocumentManager.getInstance().getDocument(testFile1);
+        assertNotNull(document);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> document.setText("one"));
+        tokenCountService.onContentChanged(testFile1);
+        tokenCountService.recountChangedFiles();
+
+        assertEquals(3, tokenCounter.calls.get());
+        assertEquals(1, tokenCountService.getTokenCount(FileContextItem.wholeFile(testFile1)));
+        assertEquals(3, tokenCountService.getTotalTokens());
+    }
+
+    private static class CountingTokenCounter implements TokenCounter {
+        private final TokenEstimator estimator = new TokenEstimator();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public int countTokens(@NotNull CharSequence text, int start, int end) {
+            calls.incrementAndGet();
+            return estimator.countTokens(text, start, end);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.vittoriomattei.contextfetcher.ui.tree;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.model.FileContextItem;
+import com.vittoriomattei.contextfetcher.model.LineRange;
+import com.vittoriomattei.contextfetcher.services.FileAggregatorServiceImpl;
+import com.vittoriomattei.contextfetcher.services.FilesChangeEvent;
+import com.vittoriomattei.contextfetcher.services.FilesChangeListener;
+import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ContextTreeModelTest extends FileAggregatorTestBase {
+
+    private ContextTreeModel model;
+    private VirtualFile serviceFile;
+    private VirtualFile otherServiceFile;
+    private VirtualFile modelFile;
+    private VirtualFile testFile;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // Top-level directory as the module, the parent directory as the group
+        model = new ContextTreeModel(file -> new ContextTreeModel.Location(
+                file.getPath().contains("/main/") ? "main" : "test", file.getParent().getName()));
+        serviceFile = createTestFile("main/services/Service.java", "class Service {}");
+        otherServiceFile = createTestFile("main/services/OtherService.java", "class OtherService {}");
+        modelFile = createTestFile("main/model/Model.java", "class Model {}");
+        testFile = createTestFile("test/services/ServiceTest.java", "class ServiceTest {}");
+    }
+
+    @Test
+    public void testGroupsByModuleAndDirectory() {
+        model.reset(List.of(FileContextItem.wholeFile(serviceFile), FileContextItem.wholeFile(modelFile),
+                FileContextItem.wholeFile(otherServiceFile), FileContextItem.wholeFile(testFile)));
+
+        Object root = model.getRoot();
+        assertEquals(2, model.getChildCount(root));
+        ContextTreeModel.Group main = (ContextTreeModel.Group) model.getChild(root, 0);
+        assertEquals("main", main.getName());
+        assertTrue(main.isModule());
+
+        ContextTreeModel.Group models = (ContextTreeModel.Group) model.getChild(main, 0);
+        ContextTreeModel.Group services = (ContextTreeModel.Group) model.getChild(main, 1);
+        assertEquals("model", models.getName());
+        assertEquals("services", services.getName());
+        assertFalse(models.isModule());
+
+        // Items are sorted like the list
+        assertEquals(FileContextItem.wholeFile(otherServiceFile), model.getChild(services, 0));
+        assertEquals(FileContextItem.wholeFile(serviceFile), model.getChild(services, 1));
+        assertTrue(model.isLeaf(model.getChild(services, 0)));
+    }
+
+    @Test
+    public void testTotalsAreAggregated() {
+        model.reset(List.of(FileContextItem.wholeFile(serviceFile), FileContextItem.wholeFile(modelFile),
+                FileContextItem.snippet(serviceFile, new LineRange(0, 0))));
+
+        ContextTreeModel.Group root = (ContextTreeModel.Group) model.getRoot();
+        assertEquals(2, root.getWholeFileCount());
+        assertEquals(1, root.getSnippetCount());
+        assertEquals(serviceFile.getLength() + modelFile.getLength(), root.getBytes());
+
+        model.apply(new FilesChangeEvent(1, List.of(), List.of(FileContextItem.wholeFile(serviceFile)), List.of()));
+
+        assertEquals(1, root.getWholeFileCount());
+        assertEquals(1, root.getSnippetCount());
+        assertEquals(modelFile.getLength(), root.getBytes());
+    }
+
+    @Test
+    public void testEmptyGroupsAreRemoved() {
+        model.reset(List.of(FileContextItem.wholeFile(serviceFile), FileContextItem.wholeFile(testFile)));
+        Object root = model.getRoot();
+
+        model.apply(new FilesChangeEvent(1, List.of(), List.of(FileContextItem.wholeFile(testFile)), List.of()));
+
+        assertEquals(1, model.getChildCount(root));
+        assertEquals("main", ((ContextTreeModel.Group) model.getChild(root, 0)).getName());
+    }
+
+    @Test
+    public void testOnlyShownGroupsReportStructureChanges() {
+        model.reset(List.of(FileContextItem.wholeFile(serviceFile)));
+        Object root = model.getRoot();
+        ContextTreeModel.Group main = (ContextTreeModel.Group) model.getChild(root, 0);
+        RecordingListener listener = new RecordingListener();
+        model.addTreeModelListener(listener);
+
+        // The directories of the module were never asked for, so the new one is not reported
+        model.apply(new FilesChangeEvent(1, List.of(FileContextItem.wholeFile(modelFile)), List.of(), List.of()));
+        assertTrue(listener.inserted.isEmpty());
+        assertTrue(listener.changed.contains(main));
+
+        // The module is shown, so the new one is
+        model.apply(new FilesChangeEvent(2, List.of(FileContextItem.wholeFile(testFile)), List.of(), List.of()));
+        assertEquals(1, listener.inserted.size());
+        assertEquals(2, model.getChildCount(root));
+        assertEquals("test", ((ContextTreeModel.Group) model.getChild(root, 1)).getName());
+    }
+
+    @Test
+    public void testReplacementMovesItem() {
+        FileContextItem before = FileContextItem.snippet(serviceFile, new LineRange(0, 0));
+        FileContextItem after = FileContextItem.snippet(serviceFile, new LineRange(2, 3));
+        model.reset(List.of(before));
+
+        model.apply(new FilesChangeEvent(1, List.of(), List.of(), List.of(new FilesChangeEvent.Replacement(before, after))));
+
+        assertEquals(List.of(after), model.collectItems(model.getRoot()));
+        assertEquals(1, ((ContextTreeModel.Group) model.getRoot()).getSnippetCount());
+    }
+
+    @Test
+    public void testMovedDirectoryRelocatesTrackedItems() throws Exception {
+        FileAggregatorServiceImpl service = new FileAggregatorServiceImpl();
+        service.addFiles(List.of(serviceFile, otherServiceFile, modelFile));
+        model.reset(service.getAllItems());
+        service.addChangeListener(new FilesChangeListener() {
+            @Override
+            public void onFilesChanged() {
+            }
+
+            @Override
+            public void onFilesChanged(@NotNull FilesChangeEvent event) {
+                model.apply(event);
+            }
+        });
+        RecordingListener listener = new RecordingListener();
+        model.addTreeModelListener(listener);
+
+        VirtualFile directory = serviceFile.getParent();
+        VirtualFile target = createTestFile("test/moved/Placeholder.java", "").getParent();
+        WriteAction.runAndWait(() -> directory.move(this, target));
+        assertEquals(2, service.applyFileSystemChanges(List.of(), List.of(directory)));
+
+        Object root = model.getRoot();
+        assertEquals(2, model.getChildCount(root));
+        ContextTreeModel.Group main = (ContextTreeModel.Group) model.getChild(root, 0);
+        ContextTreeModel.Group test = (ContextTreeModel.Group) model.getChild(root, 1);
+        assertEquals(List.of(FileContextItem.wholeFile(modelFile)), model.collectItems(main));
+        assertEquals("test", test.getName());
+        assertEquals(Set.of(FileContextItem.wholeFile(serviceFile), FileContextItem.wholeFile(otherServiceFile)),
+                new HashSet<>(model.collectItems(test)));
+        assertEquals(serviceFile.getLength() + otherServiceFile.getLength(), test.getBytes());
+        assertTrue(listener.inserted.contains(FileContextItem.wholeFile(serviceFile)));
+    }
+
+    @Test
+    public void testCollectItemsOfGroup() {
+        model.reset(List.of(FileContextItem.wholeFile(serviceFile), FileContextItem.wholeFile(otherServiceFile),
+                FileContextItem.wholeFile(testFile)));
+        ContextTreeModel.Group main = (ContextTreeModel.Group) model.getChild(model.getRoot(), 0);
+
+        Set<FileContextItem> items = new HashSet<>(model.collectItems(main));
+
+        assertEquals(Set.of(FileContextItem.wholeFile(serviceFile), FileContextItem.wholeFile(otherServiceFile)), items);
+    }
+
+    private static class RecordingListener implements TreeModelListener {
+        private final List<Object> changed = new ArrayList<>();
+        private final List<Object> inserted = new ArrayList<>();
+
+        @Override
+        public void treeNodesChanged(TreeModelEvent e) {
+            changed.addAll(e.getChildren() != null ? List.of(e.getChildren()) : List.of(e.getTreePath().getLastPathComponent()));
+        }
+
+        @Override
+        public void treeNodesInserted(TreeModelEvent e) {
+            inserted.addAll(List.of(e.getChildren()));
+        }
+
+        @Override
+        public void treeNodesRemoved(TreeModelEvent e) {
+        }
+
+        @Override
+        public void treeStructureChanged(TreeModelEvent e) {
+        }
+    }
+}
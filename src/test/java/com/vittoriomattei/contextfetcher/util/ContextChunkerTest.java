@@ -0,0 +1,56 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContextChunkerTest {
+
+    @Test
+    public void testPartsEndAtLineBreaks() {
+        String text = "first\nsecond\nthird\n";
+
+        List<ContextChunker.Part> parts = ContextChunker.split(text, 14);
+
+        assertEquals(2, parts.size());
+        assertEquals("first\nsecond\n", parts.get(0).of(text).toString());
+        assertEquals("third\n", parts.get(1).of(text).toString());
+    }
+
+    @Test
+    public void testLongLinesAreCut() {
+        String text = "abcdefghij\nklmno";
+
+        List<ContextChunker.Part> parts = ContextChunker.split(text, 4);
+
+        assertEquals(List.of("abcd", "efgh", "ij\n", "klmn", "o"), parts.stream().map(part -> part.of(text).toString()).toList());
+    }
+
+    @Test
+    public void testPartsCoverTheWholeText() {
+        String text = "line\n".repeat(100) + "last";
+
+        List<ContextChunker.Part> parts = ContextChunker.split(text, 33);
+
+        StringBuilder joined = new StringBuilder();
+        for (ContextChunker.Part part : parts) {
+            assertTrue(part.end() - part.start() <= 33);
+            joined.append(part.of(text));
+        }
+        assertEquals(text, joined.toString());
+    }
+
+    @Test
+    public void testEmptyAndShortTexts() {
+        assertTrue(ContextChunker.split("", 10).isEmpty());
+        assertEquals(List.of(new ContextChunker.Part(0, 5)), ContextChunker.split("short", 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyParts() {
+        ContextChunker.split("text", 0);
+    }
+}
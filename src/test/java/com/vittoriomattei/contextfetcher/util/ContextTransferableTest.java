@@ -0,0 +1,49 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.junit.Test;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ContextTransferableTest {
+
+    @Test
+    public void testStringFlavorReturnsTheContext() throws Exception {
+        String context = "# Context\ncontent\n";
+        ContextTransferable transferable = new ContextTransferable(context);
+
+        assertSame(context, transferable.getTransferData(DataFlavor.stringFlavor));
+    }
+
+    @Test
+    public void testReaderFlavorStreamsThePart() throws Exception {
+        String context = "first\nsecond\n";
+        ContextTransferable transferable = new ContextTransferable(CharBuffer.wrap(context, 6, 13));
+
+        assertTrue(transferable.isDataFlavorSupported(ContextTransferable.READER_FLAVOR));
+        try (Reader reader = (Reader) transferable.getTransferData(ContextTransferable.READER_FLAVOR)) {
+            StringBuilder read = new StringBuilder();
+            char[] buffer = new char[4];
+            for (int count = reader.read(buffer); count != -1; count = reader.read(buffer)) {
+                read.append(buffer, 0, count);
+            }
+            assertEquals("second\n", read.toString());
+        }
+        assertEquals("second\n", transferable.getTransferData(DataFlavor.stringFlavor));
+    }
+
+    @Test(expected = UnsupportedFlavorException.class)
+    public void testUnsupportedFlavor() throws Exception {
+        ContextTransferable transferable = new ContextTransferable("text");
+
+        assertFalse(transferable.isDataFlavorSupported(DataFlavor.imageFlavor));
+        transferable.getTransferData(DataFlavor.imageFlavor);
+    }
+}
@@ -0,0 +1,52 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DirectoryFileCollectorTest extends FileAggregatorTestBase {
+
+    private VirtualFile directory;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        String uniqueDir = "testRun_" + System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            createTestFile(uniqueDir + "/src/File" + i + ".txt", "content " + i);
+        }
+        createTestFile(uniqueDir + "/src/nested/Nested.txt", "nested");
+        directory = createTestFile(uniqueDir + "/README.md", "readme").getParent();
+    }
+
+    @Test
+    public void testCollectsNestedFilesInBatches() {
+        List<List<VirtualFile>> batches = new ArrayList<>();
+        DirectoryFileCollector collector = new DirectoryFileCollector(getProject(), 100, 4);
+
+        DirectoryFileCollector.Result result = collector.collect(directory, new EmptyProgressIndicator(), batches::add);
+
+        assertEquals(7, result.fileCount());
+        assertFalse(result.limitReached());
+        assertEquals(2, batches.size());
+        assertEquals(4, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+    }
+
+    @Test
+    public void testStopsAtFileLimit() {
+        List<VirtualFile> collected = new ArrayList<>();
+        DirectoryFileCollector collector = new DirectoryFileCollector(getProject(), 3, 10);
+
+        DirectoryFileCollector.Result result = collector.collect(directory, new EmptyProgressIndicator(), collected::addAll);
+
+        assertEquals(3, result.fileCount());
+        assertTrue(result.limitReached());
+        assertEquals(3, collected.size());
+    }
+}
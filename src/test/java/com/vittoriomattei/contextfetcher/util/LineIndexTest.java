@@ -0,0 +1,57 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineIndexTest {
+
+    @Test
+    public void testLineOffsets() {
+        String text = "first\nsecond\n\nfourth";
+        LineIndex index = LineIndex.of(text);
+
+        assertEquals(4, index.getLineCount());
+        assertEquals("first", line(text, index, 0));
+        assertEquals("second", line(text, index, 1));
+        assertEquals("", line(text, index, 2));
+        assertEquals("fourth", line(text, index, 3));
+    }
+
+    @Test
+    public void testTrailingSeparatorDoesNotStartLine() {
+        String text = "first\nsecond\n";
+        LineIndex index = LineIndex.of(text);
+
+        assertEquals(2, index.getLineCount());
+        assertEquals("second", line(text, index, 1));
+    }
+
+    @Test
+    public void testMultiLineRange() {
+        String text = "a\nb\nc\nd";
+        LineIndex index = LineIndex.of(text);
+
+        assertEquals("b\nc", text.substring(index.getLineStartOffset(1), index.getLineEndOffset(2)));
+    }
+
+    @Test
+    public void testEmptyText() {
+        assertEquals(0, LineIndex.of("").getLineCount());
+        assertEquals(1, LineIndex.of("\n").getLineCount());
+    }
+
+    @Test
+    public void testManyLines() {
+        String text = "line\n".repeat(1000);
+        LineIndex index = LineIndex.of(text);
+
+        assertEquals(1000, index.getLineCount());
+        assertEquals(999 * 5, index.getLineStartOffset(999));
+        assertEquals("line", line(text, index, 999));
+    }
+
+    private static String line(String text, LineIndex index, int line) {
+        return text.substring(index.getLineStartOffset(line), index.getLineEndOffset(line));
+    }
+}
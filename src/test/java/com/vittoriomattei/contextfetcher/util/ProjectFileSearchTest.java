@@ -0,0 +1,52 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.vittoriomattei.contextfetcher.test.FileAggregatorTestBase;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ProjectFileSearchTest extends FileAggregatorTestBase {
+
+    private VirtualFile aggregatorService;
+    private VirtualFile aggregatorTest;
+    private VirtualFile readme;
+    private ProjectFileSearch search;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        aggregatorService = createTestFile("src/FileAggregatorService.java", "interface FileAggregatorService {}");
+        aggregatorTest = createTestFile("test/FileAggregatorServiceTest.java", "class FileAggregatorServiceTest {}");
+        readme = createTestFile("README.md", "readme");
+        search = new ProjectFileSearch(getProject());
+    }
+
+    @Test
+    public void testMatchesCamelHumps() {
+        List<VirtualFile> results = search.search("FAS", List.of(), 10);
+
+        assertEquals(List.of(aggregatorService, aggregatorTest), results);
+        assertFalse(results.contains(readme));
+    }
+
+    @Test
+    public void testMatchesIgnoringCase() {
+        assertEquals(List.of(aggregatorService, aggregatorTest), search.search("fileAgg", List.of(), 10));
+        assertEquals(List.of(readme), search.search("readme", List.of(), 10));
+    }
+
+    @Test
+    public void testRecentFilesComeFirst() {
+        List<VirtualFile> results = search.search("FAS", List.of(aggregatorTest), 10);
+
+        assertEquals(List.of(aggregatorTest, aggregatorService), results);
+    }
+
+    @Test
+    public void testLimit() {
+        assertEquals(List.of(aggregatorService), search.search("FAS", List.of(), 1));
+        assertTrue(search.search("NoSuchFile", List.of(), 10).isEmpty());
+    }
+}
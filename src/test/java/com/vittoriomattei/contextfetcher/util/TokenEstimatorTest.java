@@ -0,0 +1,50 @@
+package com.vittoriomattei.contextfetcher.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenEstimatorTest {
+
+    private final TokenEstimator estimator = new TokenEstimator();
+
+    @Test
+    public void testSpaceBeforeWordIsMerged() {
+        assertEquals(2, estimator.countTokens("hello world"));
+        assertEquals(3, estimator.countTokens("hello  world"));
+    }
+
+    @Test
+    public void testCamelCaseIsSplit() {
+        assertEquals(1, estimator.countTokens("context"));
+        assertEquals(3, estimator.countTokens("ContextFetcherService"));
+    }
+
+    @Test
+    public void testNumbersAndSymbols() {
+        assertEquals(2, estimator.countTokens("123456"));
+        assertEquals(2, estimator.countTokens("();"));
+    }
+
+    @Test
+    public void testRangeMatchesSubstring() {
+        String text = "int count = items.size();\nreturn count;";
+        int start = text.indexOf('\n') + 1;
+
+        assertEquals(estimator.countTokens(text.substring(start)), estimator.countTokens(text, start, text.length()));
+        assertEquals(0, estimator.countTokens(""));
+    }
+
+    @Test
+    public void testLongerTextHasMoreTokens() {
+        String line = "public void addFile(VirtualFile file) {\n";
+        assertTrue(estimator.countTokens(line.repeat(10)) > estimator.countTokens(line));
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("~950 tokens", TokenEstimator.format(950));
+        assertEquals("~12.3k tokens", TokenEstimator.format(12_345));
+    }
+}